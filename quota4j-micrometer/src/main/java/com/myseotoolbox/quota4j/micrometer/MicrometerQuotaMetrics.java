@@ -0,0 +1,120 @@
+package com.myseotoolbox.quota4j.micrometer;
+
+import com.myseotoolbox.quota4j.metrics.QuotaMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Publishes {@link QuotaMetrics} to a Micrometer {@link MeterRegistry}.
+ * Meters are looked up once per quota id and cached, so recording doesn't allocate.
+ */
+public class MicrometerQuotaMetrics implements QuotaMetrics {
+    private final MeterRegistry registry;
+    private final Map<String, QuotaMeters> metersByQuotaId = new ConcurrentHashMap<>();
+    private final Timer stateLoad;
+    private final Timer stateSave;
+    private final Counter flushFailures;
+    private final Counter stateChangesDropped;
+    private final Counter stateChangesDelivered;
+    private final Timer stateChangeLag;
+
+    public MicrometerQuotaMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.stateLoad = Timer.builder("quota4j.state.load").publishPercentileHistogram().register(registry);
+        this.stateSave = Timer.builder("quota4j.state.save").publishPercentileHistogram().register(registry);
+        this.flushFailures = Counter.builder("quota4j.write_behind.flush_failures").register(registry);
+        this.stateChangesDropped = Counter.builder("quota4j.state_changes.dropped").register(registry);
+        this.stateChangesDelivered = Counter.builder("quota4j.state_changes.delivered").register(registry);
+        this.stateChangeLag = Timer.builder("quota4j.state_changes.lag").publishPercentileHistogram().register(registry);
+    }
+
+    @Override
+    public void acquired(String quotaId, boolean granted, long latencyNanos) {
+        QuotaMeters meters = metersFor(quotaId);
+        (granted ? meters.granted : meters.declined).increment();
+        meters.acquire.record(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void declinedLocally(String quotaId) {
+        metersFor(quotaId).declinedLocally.increment();
+    }
+
+    @Override
+    public void stateQueried(String quotaId, long latencyNanos) {
+        metersFor(quotaId).query.record(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void refilled(String quotaId) {
+        metersFor(quotaId).refilled.increment();
+    }
+
+    @Override
+    public void stateLoaded(long latencyNanos) {
+        stateLoad.record(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void stateSaved(long latencyNanos) {
+        stateSave.record(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void conflict(String quotaId) {
+        metersFor(quotaId).conflicts.increment();
+    }
+
+    @Override
+    public void flushFailed(int dirtyStates, RuntimeException error) {
+        flushFailures.increment();
+    }
+
+    @Override
+    public void stateChangesDropped(int count) {
+        stateChangesDropped.increment(count);
+    }
+
+    @Override
+    public void stateChangesDelivered(int count, long lagNanos) {
+        stateChangesDelivered.increment(count);
+        stateChangeLag.record(lagNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void bindQuotaManagersCacheSize(IntSupplier size) {
+        // the supplier is usually a capturing lambda nothing else references, a weak reference would lose it on the next GC
+        Gauge.builder("quota4j.quota_managers.cached", size, IntSupplier::getAsInt).strongReference(true).register(registry);
+    }
+
+    private QuotaMeters metersFor(String quotaId) {
+        return metersByQuotaId.computeIfAbsent(quotaId, id -> new QuotaMeters(registry, id));
+    }
+
+    private static class QuotaMeters {
+        private final Counter granted;
+        private final Counter declined;
+        private final Counter declinedLocally;
+        private final Counter refilled;
+        private final Counter conflicts;
+        private final Timer acquire;
+        private final Timer query;
+
+        QuotaMeters(MeterRegistry registry, String quotaId) {
+            this.granted = Counter.builder("quota4j.acquire.result").tag("quota", quotaId).tag("result", "granted").register(registry);
+            this.declined = Counter.builder("quota4j.acquire.result").tag("quota", quotaId).tag("result", "declined").register(registry);
+            this.declinedLocally = Counter.builder("quota4j.deny_cache.hit").tag("quota", quotaId).register(registry);
+            this.refilled = Counter.builder("quota4j.refill").tag("quota", quotaId).register(registry);
+            this.conflicts = Counter.builder("quota4j.conflict").tag("quota", quotaId).register(registry);
+            this.acquire = Timer.builder("quota4j.acquire").tag("quota", quotaId).publishPercentileHistogram().register(registry);
+            this.query = Timer.builder("quota4j.state.query").tag("quota", quotaId).publishPercentileHistogram().register(registry);
+        }
+    }
+}
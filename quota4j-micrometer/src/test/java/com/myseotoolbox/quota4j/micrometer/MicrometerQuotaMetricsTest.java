@@ -0,0 +1,46 @@
+package com.myseotoolbox.quota4j.micrometer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class MicrometerQuotaMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final MicrometerQuotaMetrics sut = new MicrometerQuotaMetrics(registry);
+
+    @Test
+    void shouldCountResultsPerQuota() {
+        sut.acquired("quota1", true, 1000);
+        sut.acquired("quota1", true, 1000);
+        sut.acquired("quota1", false, 1000);
+        sut.acquired("quota2", false, 1000);
+
+        assertThat(registry.get("quota4j.acquire.result").tag("quota", "quota1").tag("result", "granted").counter().count(), is(2.0));
+        assertThat(registry.get("quota4j.acquire.result").tag("quota", "quota1").tag("result", "declined").counter().count(), is(1.0));
+        assertThat(registry.get("quota4j.acquire").tag("quota", "quota2").timer().count(), is(1L));
+    }
+
+    @Test
+    void shouldRecordPersistenceLatency() {
+        sut.stateLoaded(TimeUnit.MILLISECONDS.toNanos(3));
+        sut.stateSaved(TimeUnit.MILLISECONDS.toNanos(5));
+
+        assertThat(registry.get("quota4j.state.load").timer().totalTime(TimeUnit.MILLISECONDS), is(3.0));
+        assertThat(registry.get("quota4j.state.save").timer().totalTime(TimeUnit.MILLISECONDS), is(5.0));
+    }
+
+    @Test
+    void shouldReportQuotaManagersCacheSize() {
+        AtomicInteger cached = new AtomicInteger(7);
+        sut.bindQuotaManagersCacheSize(cached::get);
+        System.gc();
+
+        assertThat(registry.get("quota4j.quota_managers.cached").gauge().value(), is(7.0));
+    }
+}
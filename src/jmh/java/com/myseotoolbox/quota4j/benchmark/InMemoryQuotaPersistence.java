@@ -0,0 +1,22 @@
+package com.myseotoolbox.quota4j.benchmark;
+
+import com.myseotoolbox.quota4j.model.Quota;
+import com.myseotoolbox.quota4j.persistence.QuotaPersistence;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+class InMemoryQuotaPersistence implements QuotaPersistence {
+    private final ConcurrentHashMap<String, Quota> quotas = new ConcurrentHashMap<>();
+
+    @Override
+    public Quota save(Quota quota) {
+        quotas.put(quota.id(), quota);
+        return quota;
+    }
+
+    @Override
+    public Optional<Quota> findById(String id) {
+        return Optional.ofNullable(quotas.get(id));
+    }
+}
@@ -0,0 +1,34 @@
+package com.myseotoolbox.quota4j.benchmark;
+
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.persistence.QuotaStatePersistence;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+class InMemoryQuotaStatePersistence implements QuotaStatePersistence {
+    private final ConcurrentHashMap<QuotaStateId, QuotaState> states = new ConcurrentHashMap<>();
+
+    @Override
+    public Optional<QuotaState> findById(QuotaStateId quotaStateId) {
+        return Optional.ofNullable(states.get(quotaStateId));
+    }
+
+    @Override
+    public QuotaState save(QuotaState quotaState) {
+        states.put(quotaState.id(), quotaState);
+        return quotaState;
+    }
+
+    @Override
+    public boolean compareAndSave(long expectedVersion, QuotaState newState) {
+        boolean[] saved = new boolean[1];
+        states.compute(newState.id(), (id, current) -> {
+            long currentVersion = current == null ? 0 : current.version();
+            saved[0] = currentVersion == expectedVersion;
+            return saved[0] ? newState : current;
+        });
+        return saved[0];
+    }
+}
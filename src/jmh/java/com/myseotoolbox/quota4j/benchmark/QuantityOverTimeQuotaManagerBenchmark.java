@@ -0,0 +1,86 @@
+package com.myseotoolbox.quota4j.benchmark;
+
+import com.myseotoolbox.quota4j.quotamanager.AcquireResponse;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeBucket;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeState;
+import com.myseotoolbox.quota4j.time.CoarseQuotaClock;
+import com.myseotoolbox.quota4j.time.QuotaClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import static com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit.limitOf;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuantityOverTimeQuotaManagerBenchmark {
+
+    @Param({"java", "system", "coarse"})
+    private String clock;
+
+    private CoarseQuotaClock coarseClock;
+    private QuantityOverTimeQuotaManager quotaManager;
+    private QuantityOverTimeState withinWindow;
+    private QuantityOverTimeState windowExpired;
+    private QuantityOverTimeBucket bucket;
+
+    @Setup
+    public void setUp() {
+        quotaManager = switch (clock) {
+            case "system" -> new QuantityOverTimeQuotaManager(QuotaClock.system());
+            case "coarse" -> new QuantityOverTimeQuotaManager(coarseClock = new CoarseQuotaClock(Duration.ofMillis(10)));
+            default -> new QuantityOverTimeQuotaManager(Clock.systemUTC());
+        };
+        withinWindow = new QuantityOverTimeState(limitOf(1_000_000, Duration.ofDays(365)), 1_000_000, Instant.now());
+        windowExpired = new QuantityOverTimeState(limitOf(1_000_000, Duration.ofSeconds(1)), 0, Instant.EPOCH);
+        bucket = new QuantityOverTimeBucket(limitOf(Long.MAX_VALUE, Duration.ofSeconds(1)), Long.MAX_VALUE, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (coarseClock != null) coarseClock.close();
+    }
+
+    @Benchmark
+    public AcquireResponse<QuantityOverTimeState> tryAcquireNoRefill() {
+        return quotaManager.tryAcquire(withinWindow, 1);
+    }
+
+    @Benchmark
+    public AcquireResponse<QuantityOverTimeState> tryAcquireWithRefill() {
+        return quotaManager.tryAcquire(windowExpired, 1);
+    }
+
+    /**
+     * Same path as {@link com.myseotoolbox.quota4j.ShardedQuotaEngine} for quantity over time states, expected to report 0 B/op
+     * with the system and coarse clocks
+     */
+    @Benchmark
+    public boolean bucketTryAcquire() {
+        return quotaManager.tryAcquire(bucket, 1);
+    }
+
+    @Benchmark
+    public AcquireResponse<QuantityOverTimeState> tryAcquireDeclined() {
+        return quotaManager.tryAcquire(withinWindow, 2_000_000);
+    }
+}
@@ -0,0 +1,94 @@
+package com.myseotoolbox.quota4j.benchmark;
+
+import com.myseotoolbox.quota4j.QuotaService;
+import com.myseotoolbox.quota4j.model.Quota;
+import com.myseotoolbox.quota4j.quotamanager.AcquireResponse;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit.limitOf;
+
+/**
+ * {@code contended}: all the threads acquire from the same owner, otherwise each thread cycles through its own owners.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuotaServiceBenchmark {
+    private static final String QUOTA_ID = "benchmark";
+
+    @Param({"1000", "100000"})
+    public int owners;
+
+    @Param({"false", "true"})
+    public boolean contended;
+
+    private QuotaService quotaService;
+    private String[] ownerIds;
+
+    @Setup
+    public void setUp() {
+        InMemoryQuotaPersistence quotaPersistence = new InMemoryQuotaPersistence();
+        QuantityOverTimeState defaultState = new QuantityOverTimeState(limitOf(Long.MAX_VALUE / 2, Duration.ofDays(365)), Long.MAX_VALUE / 2, Instant.now());
+        quotaPersistence.save(new Quota(QUOTA_ID, QuantityOverTimeQuotaManager.class.getName(), defaultState));
+        quotaService = new QuotaService(quotaPersistence, new InMemoryQuotaStatePersistence());
+        quotaService.registerQuotaManagerFactory(QuantityOverTimeQuotaManager.class.getName(), () -> new QuantityOverTimeQuotaManager(Clock.systemUTC()));
+        ownerIds = new String[owners];
+        for (int i = 0; i < owners; i++) {
+            ownerIds[i] = "owner-" + i;
+            quotaService.tryAcquire(ownerIds[i], QUOTA_ID, 1);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+        private final int offset = THREADS.getAndIncrement() * 7919;
+        private int next;
+
+        String nextOwner(QuotaServiceBenchmark benchmark) {
+            if (benchmark.contended) return benchmark.ownerIds[0];
+            next = (next + 1) % benchmark.owners;
+            return benchmark.ownerIds[(next + offset) % benchmark.owners];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public AcquireResponse<?> tryAcquire1Thread(ThreadState threadState) {
+        return quotaService.tryAcquire(threadState.nextOwner(this), QUOTA_ID, 1);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public AcquireResponse<?> tryAcquire4Threads(ThreadState threadState) {
+        return quotaService.tryAcquire(threadState.nextOwner(this), QUOTA_ID, 1);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public AcquireResponse<?> tryAcquireMaxThreads(ThreadState threadState) {
+        return quotaService.tryAcquire(threadState.nextOwner(this), QUOTA_ID, 1);
+    }
+}
@@ -0,0 +1,32 @@
+package com.myseotoolbox.quota4j;
+
+import com.myseotoolbox.quota4j.quotamanager.AcquireResponse;
+import com.myseotoolbox.quota4j.quotamanager.QuotaManager;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @param retryAfter how long to wait before retrying a declined acquire, as estimated by {@link QuotaManager#nanosUntilAvailable(Object, long)}.
+ *                   Empty when granted, or when waiting can't help.
+ */
+public record AcquireAttempt(AcquireResponse<?> response, Optional<Duration> retryAfter) {
+    private static final long MIN_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    static AcquireAttempt of(AcquireResponse<?> response, long nanosUntilAvailable) {
+        boolean canRetry = !response.result() && nanosUntilAvailable != QuotaManager.NEVER;
+        return new AcquireAttempt(response, canRetry ? Optional.of(Duration.ofNanos(nanosUntilAvailable)) : Optional.empty());
+    }
+
+    public boolean granted() {
+        return response.result();
+    }
+
+    /**
+     * At least a millisecond, so estimates rounded down don't turn waiting into a busy loop
+     */
+    long waitNanos() {
+        return Math.max(retryAfter.map(Duration::toNanos).orElse(0L), MIN_WAIT_NANOS);
+    }
+}
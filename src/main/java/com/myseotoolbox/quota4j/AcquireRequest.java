@@ -0,0 +1,13 @@
+package com.myseotoolbox.quota4j;
+
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+
+public record AcquireRequest(String ownerId, String quotaId, long quantity) {
+    public static AcquireRequest of(String ownerId, String quotaId, long quantity) {
+        return new AcquireRequest(ownerId, quotaId, quantity);
+    }
+
+    public QuotaStateId quotaStateId() {
+        return QuotaStateId.create(ownerId, quotaId);
+    }
+}
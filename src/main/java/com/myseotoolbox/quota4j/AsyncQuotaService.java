@@ -0,0 +1,178 @@
+package com.myseotoolbox.quota4j;
+
+import com.myseotoolbox.quota4j.model.Quota;
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.persistence.AsyncQuotaPersistence;
+import com.myseotoolbox.quota4j.persistence.AsyncQuotaStatePersistence;
+import com.myseotoolbox.quota4j.persistence.BlockingQuotaPersistenceAdapter;
+import com.myseotoolbox.quota4j.persistence.BlockingQuotaStatePersistenceAdapter;
+import com.myseotoolbox.quota4j.persistence.QuotaPersistence;
+import com.myseotoolbox.quota4j.persistence.QuotaStatePersistence;
+import com.myseotoolbox.quota4j.quotamanager.AcquireResponse;
+import com.myseotoolbox.quota4j.quotamanager.QuotaManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Non blocking version of {@link QuotaService}: no thread is held while the persistence does I/O.
+ * <p>
+ * Operations on the same {@link QuotaStateId} are chained one after the other in this JVM instead of being locked,
+ * concurrent updates from other nodes are detected with {@link AsyncQuotaStatePersistence#compareAndSave(long, QuotaState)}
+ * and retried.
+ */
+public class AsyncQuotaService {
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final AsyncQuotaPersistence quotaPersistence;
+    private final AsyncQuotaStatePersistence quotaStatePersistence;
+    private final QuotaServiceOptions options;
+    private final QuotaManagerRegistry quotaManagers;
+    private final ConcurrentHashMap<QuotaStateId, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+
+    public AsyncQuotaService(AsyncQuotaPersistence quotaPersistence, AsyncQuotaStatePersistence quotaStatePersistence) {
+        this(quotaPersistence, quotaStatePersistence, QuotaServiceOptions.defaults());
+    }
+
+    public AsyncQuotaService(AsyncQuotaPersistence quotaPersistence, AsyncQuotaStatePersistence quotaStatePersistence, QuotaServiceOptions options) {
+        this.quotaPersistence = quotaPersistence;
+        this.quotaStatePersistence = quotaStatePersistence;
+        this.options = options;
+        this.quotaManagers = new QuotaManagerRegistry(options.perKeyQuotaManagersCacheSize());
+    }
+
+    /**
+     * Runs the blocking persistence on the given executor, ideally a virtual thread per task executor on Java 21+.
+     */
+    public static AsyncQuotaService onExecutor(QuotaPersistence quotaPersistence, QuotaStatePersistence quotaStatePersistence, Executor executor) {
+        return new AsyncQuotaService(new BlockingQuotaPersistenceAdapter(quotaPersistence, executor),
+                new BlockingQuotaStatePersistenceAdapter(quotaStatePersistence, executor));
+    }
+
+    public CompletableFuture<AcquireResponse<?>> tryAcquireAsync(String ownerId, String quotaId, long quantity) {
+        QuotaStateId quotaStateId = QuotaStateId.create(ownerId, quotaId);
+        return serialized(quotaStateId, () -> update(quotaStateId, quotaState -> {
+            AcquireResponse<?> response = getQuotaManager(quotaState).tryAcquire(quotaState.currentState(), quantity);
+            return new Update<>(response.state(), response);
+        }, 0));
+    }
+
+    /**
+     * Same as {@link #tryAcquireAsync(String, String, long)}, but a declined response comes with an estimate of when retrying could succeed
+     */
+    public CompletableFuture<AcquireAttempt> tryAcquireWithRetryHintAsync(String ownerId, String quotaId, long quantity) {
+        QuotaStateId quotaStateId = QuotaStateId.create(ownerId, quotaId);
+        return serialized(quotaStateId, () -> update(quotaStateId, quotaState -> {
+            QuotaManager<Object> quotaManager = getQuotaManager(quotaState);
+            AcquireResponse<?> response = quotaManager.tryAcquire(quotaState.currentState(), quantity);
+            long nanosUntilAvailable = response.result() ? 0 : quotaManager.nanosUntilAvailable(response.state(), quantity);
+            return new Update<>(response.state(), AcquireAttempt.of(response, nanosUntilAvailable));
+        }, 0));
+    }
+
+    /**
+     * Completes once the quantity is granted, or with the declined response if it can't be within {@code maxWait}.
+     * Retries are scheduled when the quota manager estimates the quantity could be available, no thread waits meanwhile.
+     */
+    public CompletableFuture<AcquireResponse<?>> acquireAsync(String ownerId, String quotaId, long quantity, Duration maxWait) {
+        return acquireUntil(ownerId, quotaId, quantity, System.nanoTime() + maxWait.toNanos());
+    }
+
+    private CompletableFuture<AcquireResponse<?>> acquireUntil(String ownerId, String quotaId, long quantity, long deadline) {
+        return tryAcquireWithRetryHintAsync(ownerId, quotaId, quantity).thenCompose(attempt -> {
+            if (attempt.granted() || attempt.retryAfter().isEmpty()) return CompletableFuture.completedFuture(attempt.response());
+            long waitNanos = attempt.waitNanos();
+            if (System.nanoTime() + waitNanos - deadline > 0) return CompletableFuture.completedFuture(attempt.response());
+            return CompletableFuture.runAsync(() -> {
+            }, CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS)).thenCompose(ignored -> acquireUntil(ownerId, quotaId, quantity, deadline));
+        });
+    }
+
+    public CompletableFuture<Object> getQuotaStateAsync(String ownerId, String quotaId) {
+        QuotaStateId quotaStateId = QuotaStateId.create(ownerId, quotaId);
+        return serialized(quotaStateId, () -> update(quotaStateId, quotaState -> {
+            Object newState = getQuotaManager(quotaState).getCurrentState(quotaState.currentState());
+            return new Update<>(newState, newState);
+        }, 0));
+    }
+
+    public void registerQuotaManagerFactory(String className, QuotaManagerFactory quotaManagerFactory) {
+        quotaManagers.register(className, quotaManagerFactory);
+    }
+
+    private <T> CompletableFuture<T> update(QuotaStateId quotaStateId, Function<QuotaState, Update<T>> operation, int retry) {
+        return getQuotaState(quotaStateId).thenCompose(quotaState -> {
+            Update<T> update = operation.apply(quotaState);
+            if (quotaState.hasState(update.newState())) return CompletableFuture.completedFuture(update.result());
+            QuotaState updated = quotaState.withUpdatedState(update.newState()).withNextVersion();
+            return quotaStatePersistence.compareAndSave(quotaState.version(), updated)
+                    .thenCompose(saved -> {
+                        if (saved) {
+                            options.stateChangeFeed().publish(updated);
+                            return CompletableFuture.completedFuture(update.result());
+                        }
+                        if (retry >= options.maxConflictRetries()) {
+                            return CompletableFuture.failedFuture(new ConcurrentQuotaUpdateException(List.of(quotaStateId)));
+                        }
+                        return afterBackoff(retry).thenCompose(ignored -> update(quotaStateId, operation, retry + 1));
+                    });
+        });
+    }
+
+    /**
+     * Chains the operation after any other one in flight for the same state, so that they never overlap in this JVM
+     */
+    private <T> CompletableFuture<T> serialized(QuotaStateId quotaStateId, Supplier<CompletableFuture<T>> operation) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<?> previous = inFlight.put(quotaStateId, result);
+        CompletableFuture<?> start = previous == null ? DONE : previous.handle((ignored, error) -> null);
+        start.thenCompose(ignored -> operation.get())
+                .whenComplete((value, error) -> {
+                    inFlight.remove(quotaStateId, result);
+                    if (error != null) result.completeExceptionally(unwrap(error));
+                    else result.complete(value);
+                });
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private CompletableFuture<Void> afterBackoff(int retry) {
+        long maxBackoffNanos = options.conflictBackoff().toNanos() << Math.min(retry, 16);
+        if (maxBackoffNanos <= 0) return DONE;
+        long backoffNanos = ThreadLocalRandom.current().nextLong(maxBackoffNanos / 2, maxBackoffNanos + 1);
+        return CompletableFuture.runAsync(() -> {
+        }, CompletableFuture.delayedExecutor(backoffNanos, TimeUnit.NANOSECONDS));
+    }
+
+    private CompletableFuture<QuotaState> getQuotaState(QuotaStateId quotaStateId) {
+        return quotaStatePersistence.findById(quotaStateId).thenCompose(quotaState -> quotaState
+                .map(CompletableFuture::completedFuture)
+                .orElseGet(() -> createFor(quotaStateId)));
+    }
+
+    private CompletableFuture<QuotaState> createFor(QuotaStateId quotaStateId) {
+        return quotaPersistence.findById(quotaStateId.quotaId()).thenApply(quota -> {
+            Quota found = quota.orElseThrow(() -> new QuotaNotFoundException(quotaStateId.quotaId()));
+            return new QuotaState(quotaStateId, found.quotaManagerClassName(), found.defaultState());
+        });
+    }
+
+    private QuotaManager<Object> getQuotaManager(QuotaState quotaState) {
+        return quotaManagers.get(quotaState.id(), quotaState.quotaManagerClassName());
+    }
+
+    private record Update<T>(Object newState, T result) {
+    }
+}
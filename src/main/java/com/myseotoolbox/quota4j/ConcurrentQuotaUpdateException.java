@@ -0,0 +1,11 @@
+package com.myseotoolbox.quota4j;
+
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+
+import java.util.Collection;
+
+public class ConcurrentQuotaUpdateException extends RuntimeException {
+    public ConcurrentQuotaUpdateException(Collection<QuotaStateId> quotaStateIds) {
+        super("Quota state kept being updated concurrently, giving up: " + quotaStateIds);
+    }
+}
@@ -0,0 +1,112 @@
+package com.myseotoolbox.quota4j;
+
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.quotamanager.AcquireResponse;
+import com.myseotoolbox.quota4j.quotamanager.QuotaManager;
+import com.myseotoolbox.quota4j.time.QuotaClock;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers declined acquires, so that retries of the same or a bigger quantity are declined locally, without reading the state,
+ * until the quota manager estimates it could be available again.
+ * <p>
+ * Entries are local to this node. Acquires on other nodes can only consume more, so the estimate stays valid; releases,
+ * a raised quota or a reset state elsewhere can make a quantity available earlier, which is why entries live at most {@code maxTtl}.
+ * Call {@link #invalidateQuota(String)} after changing a quota to make it effective on this node straight away.
+ * Once {@code maxSize} entries are cached, new declines are not cached until expired ones are purged. Purging scans every entry,
+ * so it runs at most once per {@code maxTtl}: by then every entry cached before the previous purge has expired.
+ */
+public class DenyCache {
+    private static final DenyCache DISABLED = new DenyCache(0, Duration.ZERO);
+
+    private final int maxSize;
+    private final long maxTtlNanos;
+    private final QuotaClock clock;
+    private final ConcurrentHashMap<QuotaStateId, Denial> denials = new ConcurrentHashMap<>();
+    private final AtomicLong nextPurgeNanos;
+
+    public DenyCache(int maxSize, Duration maxTtl) {
+        this(maxSize, maxTtl, QuotaClock.system());
+    }
+
+    public DenyCache(int maxSize, Duration maxTtl, QuotaClock clock) {
+        this.maxSize = maxSize;
+        this.maxTtlNanos = maxTtl.toNanos();
+        this.clock = clock;
+        this.nextPurgeNanos = new AtomicLong(clock.nowNanos());
+    }
+
+    /**
+     * Caches nothing, every acquire reads the state
+     */
+    public static DenyCache disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0 && maxTtlNanos > 0;
+    }
+
+    public void invalidate(QuotaStateId quotaStateId) {
+        denials.remove(quotaStateId);
+    }
+
+    /**
+     * Forgets the declines of every owner of the quota, e.g. after its limit was raised
+     */
+    public void invalidateQuota(String quotaId) {
+        denials.keySet().removeIf(quotaStateId -> quotaStateId.quotaId().equals(quotaId));
+    }
+
+    public void invalidateAll() {
+        denials.clear();
+    }
+
+    public int size() {
+        return denials.size();
+    }
+
+    /**
+     * Returns the cached decline for the quantity, with the time left before retrying, or null if it must go to the state
+     */
+    AcquireAttempt check(QuotaStateId quotaStateId, long quantity) {
+        if (!isEnabled()) return null;
+        Denial denial = denials.get(quotaStateId);
+        if (denial == null || quantity < denial.minQuantity()) return null;
+        long remainingNanos = denial.untilNanos() - clock.nowNanos();
+        if (remainingNanos <= 0) {
+            denials.remove(quotaStateId, denial);
+            return null;
+        }
+        return AcquireAttempt.of(AcquireResponse.declinedWithState(denial.state()), remainingNanos);
+    }
+
+    /**
+     * Caches a decline for {@code nanosUntilAvailable}, capped to the max TTL, or for the max TTL if it can never be granted
+     */
+    void declined(QuotaStateId quotaStateId, long quantity, Object state, long nanosUntilAvailable) {
+        if (!isEnabled() || nanosUntilAvailable <= 0) return;
+        long now = clock.nowNanos();
+        if (denials.size() >= maxSize && !denials.containsKey(quotaStateId)) {
+            if (!purgeExpired(now) || denials.size() >= maxSize) return;
+        }
+        long ttlNanos = nanosUntilAvailable == QuotaManager.NEVER ? maxTtlNanos : Math.min(nanosUntilAvailable, maxTtlNanos);
+        denials.put(quotaStateId, new Denial(now + ttlNanos, quantity, state));
+    }
+
+    /**
+     * Returns false if the last purge was less than the max TTL ago, or another thread is purging
+     */
+    private boolean purgeExpired(long now) {
+        long nextPurge = nextPurgeNanos.get();
+        if (now - nextPurge < 0 || !nextPurgeNanos.compareAndSet(nextPurge, now + maxTtlNanos)) return false;
+        denials.values().removeIf(denial -> denial.untilNanos() - now <= 0);
+        return true;
+    }
+
+    private record Denial(long untilNanos, long minQuantity, Object state) {
+    }
+}
@@ -0,0 +1,14 @@
+package com.myseotoolbox.quota4j;
+
+import java.time.Duration;
+
+/**
+ * @param blockSize        units reserved from the store at once. Each node holds at most this many units that other
+ *                         nodes can't use, and may over-grant at most this many if a release races with a window reset.
+ * @param maxLeaseDuration how long a node keeps serving from a block before going back to the store
+ */
+public record LeaseOptions(long blockSize, Duration maxLeaseDuration) {
+    public static LeaseOptions of(long blockSize, Duration maxLeaseDuration) {
+        return new LeaseOptions(blockSize, maxLeaseDuration);
+    }
+}
@@ -0,0 +1,149 @@
+package com.myseotoolbox.quota4j;
+
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.quotamanager.AcquireResponse;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeBucket;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeState;
+import com.myseotoolbox.quota4j.time.QuotaClock;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Reserves blocks of {@link LeaseOptions#blockSize()} units through {@link QuotaService} and serves acquires from
+ * memory until the block is used up or the lease expires, cutting store round trips by roughly the block size.
+ * <p>
+ * Leases taken from a {@link QuantityOverTimeState} never outlive the window they were taken from.
+ * Unused units are given back with {@link QuotaService#release(String, String, long)} when a lease is replaced or expired
+ * and on {@link #close()}, so the quota manager must support releasing; it decides whether they still count, e.g.
+ * {@link com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager} ignores releases into a newer window.
+ * Expired leases of owners that stopped acquiring are given back at most once per {@link LeaseOptions#maxLeaseDuration()}.
+ */
+public class LeasingQuotaService implements AutoCloseable {
+    private final QuotaService quotaService;
+    private final LeaseOptions options;
+    private final QuotaClock clock;
+    private final ConcurrentHashMap<QuotaStateId, Lease> leases = new ConcurrentHashMap<>();
+    private final StripedLocks locks = new StripedLocks(QuotaServiceOptions.DEFAULT_LOCK_STRIPES);
+    private final AtomicLong nextSweepNanos;
+
+    public LeasingQuotaService(QuotaService quotaService, LeaseOptions options, Clock clock) {
+        this(quotaService, options, QuotaClock.of(clock));
+    }
+
+    public LeasingQuotaService(QuotaService quotaService, LeaseOptions options, QuotaClock clock) {
+        this.quotaService = quotaService;
+        this.options = options;
+        this.clock = clock;
+        this.nextSweepNanos = new AtomicLong(clock.nowNanos() + options.maxLeaseDuration().toNanos());
+    }
+
+    public boolean tryAcquire(String ownerId, String quotaId, long quantity) {
+        QuotaStateId quotaStateId = QuotaStateId.create(ownerId, quotaId);
+        Lease lease = leases.get(quotaStateId);
+        if (lease != null && lease.tryTake(quantity, nowNanos())) return true;
+        giveBackExpired(nowNanos());
+
+        Lock lock = locks.lockFor(quotaStateId);
+        lock.lock();
+        try {
+            long now = nowNanos();
+            lease = leases.get(quotaStateId);
+            if (lease != null && lease.tryTake(quantity, now)) return true;
+            if (lease != null) giveBack(quotaStateId, lease);
+
+            long blockSize = Math.max(options.blockSize(), quantity);
+            AcquireResponse<?> response = quotaService.tryAcquire(ownerId, quotaId, blockSize);
+            if (response.result()) {
+                leases.put(quotaStateId, new Lease(blockSize - quantity, leaseExpiry(response.state(), now)));
+                return true;
+            }
+            return blockSize > quantity && quotaService.tryAcquire(ownerId, quotaId, quantity).result();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Units left in memory for this owner and quota, not yet served
+     */
+    public long leased(String ownerId, String quotaId) {
+        Lease lease = leases.get(QuotaStateId.create(ownerId, quotaId));
+        return lease == null ? 0 : lease.remaining.get();
+    }
+
+    /**
+     * Gives back every unused unit
+     */
+    @Override
+    public void close() {
+        for (Map.Entry<QuotaStateId, Lease> entry : leases.entrySet()) {
+            giveBackLocked(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Called without holding any stripe, as it locks the ones of the expired leases
+     */
+    private void giveBackExpired(long now) {
+        long nextSweep = nextSweepNanos.get();
+        if (now - nextSweep < 0 || !nextSweepNanos.compareAndSet(nextSweep, now + options.maxLeaseDuration().toNanos())) return;
+        for (Map.Entry<QuotaStateId, Lease> entry : leases.entrySet()) {
+            if (now - entry.getValue().expiresAtNanos >= 0) giveBackLocked(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void giveBackLocked(QuotaStateId quotaStateId, Lease lease) {
+        Lock lock = locks.lockFor(quotaStateId);
+        lock.lock();
+        try {
+            if (leases.get(quotaStateId) == lease) giveBack(quotaStateId, lease);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Expired leases are given back too: the quota manager ignores the release if their window is over
+     */
+    private void giveBack(QuotaStateId quotaStateId, Lease lease) {
+        long unused = lease.remaining.getAndSet(0);
+        leases.remove(quotaStateId, lease);
+        if (unused > 0) quotaService.release(quotaStateId.ownerId(), quotaStateId.quotaId(), unused);
+    }
+
+    private long leaseExpiry(Object state, long now) {
+        long expiry = now + options.maxLeaseDuration().toNanos();
+        if (state instanceof QuantityOverTimeState quantityOverTimeState) {
+            return Math.min(expiry, QuantityOverTimeBucket.windowEndNanos(quantityOverTimeState));
+        }
+        return expiry;
+    }
+
+    private long nowNanos() {
+        return clock.nowNanos();
+    }
+
+    private static class Lease {
+        private final AtomicLong remaining;
+        private final long expiresAtNanos;
+
+        Lease(long remaining, long expiresAtNanos) {
+            this.remaining = new AtomicLong(remaining);
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        boolean tryTake(long quantity, long now) {
+            if (now >= expiresAtNanos) return false;
+            long current;
+            do {
+                current = remaining.get();
+                if (current < quantity) return false;
+            } while (!remaining.compareAndSet(current, current - quantity));
+            return true;
+        }
+    }
+}
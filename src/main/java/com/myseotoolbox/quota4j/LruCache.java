@@ -0,0 +1,96 @@
+package com.myseotoolbox.quota4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded cache split in segments, each one an LRU map with its own monitor, so that keys on different segments never
+ * contend. Small caches have a single segment, the least recently used entry being evicted exactly.
+ */
+class LruCache<K, V> {
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_SIZE = 64;
+
+    private final Segment<K, V>[] segments;
+    private final int mask;
+
+    @SuppressWarnings("unchecked")
+    LruCache(int maxSize) {
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maxSize / MIN_SEGMENT_SIZE)));
+        this.segments = new Segment[count];
+        this.mask = count - 1;
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<>(maxSize / count + (i < maxSize % count ? 1 : 0));
+        }
+    }
+
+    V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * The value is built outside of the segment monitor: concurrent misses on the same key may both build it,
+     * all callers then get the one cached first.
+     */
+    V computeIfAbsent(K key, Function<K, V> mappingFunction) {
+        V value = get(key);
+        if (value != null) return value;
+        V built = mappingFunction.apply(key);
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            V existing = segment.putIfAbsent(key, built);
+            return existing != null ? existing : built;
+        }
+    }
+
+    void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    V remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return segments[h & mask];
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -4,4 +4,13 @@ import com.myseotoolbox.quota4j.quotamanager.QuotaManager;
 
 public interface QuotaManagerFactory {
     QuotaManager<?> build();
+
+    /**
+     * A shareable manager keeps no state of its own (everything lives in the state passed to it), so a single instance
+     * is built and reused for every owner. Return false if each {@link com.myseotoolbox.quota4j.model.QuotaStateId}
+     * needs its own instance: those are kept in a bounded cache and rebuilt after eviction.
+     */
+    default boolean isShareable() {
+        return true;
+    }
 }
@@ -0,0 +1,48 @@
+package com.myseotoolbox.quota4j;
+
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.quotamanager.QuotaManager;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+class QuotaManagerRegistry {
+    private final ConcurrentHashMap<String, QuotaManagerFactory> quotaManagerFactories = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, QuotaManager<?>> sharedQuotaManagers = new ConcurrentHashMap<>();
+    private final LruCache<QuotaStateId, QuotaManager<?>> perKeyQuotaManagers;
+
+    QuotaManagerRegistry(int perKeyQuotaManagersCacheSize) {
+        this.perKeyQuotaManagers = new LruCache<>(perKeyQuotaManagersCacheSize);
+    }
+
+    void register(String className, QuotaManagerFactory quotaManagerFactory) {
+        quotaManagerFactories.put(className, quotaManagerFactory);
+        sharedQuotaManagers.remove(className);
+    }
+
+    @SuppressWarnings("unchecked")
+    QuotaManager<Object> get(QuotaStateId quotaStateId, String quotaManagerClassName) {
+        QuotaManagerFactory quotaManagerFactory = getFactory(quotaManagerClassName);
+        QuotaManager<?> quotaManager = quotaManagerFactory.isShareable()
+                ? sharedQuotaManagers.computeIfAbsent(quotaManagerClassName, it -> quotaManagerFactory.build())
+                : perKeyQuotaManagers.computeIfAbsent(quotaStateId, it -> quotaManagerFactory.build());
+        return (QuotaManager<Object>) quotaManager;
+    }
+
+    boolean isRegistered(String quotaManagerClassName) {
+        return quotaManagerFactories.containsKey(quotaManagerClassName);
+    }
+
+    void evict(QuotaStateId quotaStateId) {
+        perKeyQuotaManagers.remove(quotaStateId);
+    }
+
+    int size() {
+        return sharedQuotaManagers.size() + perKeyQuotaManagers.size();
+    }
+
+    private QuotaManagerFactory getFactory(String quotaManagerClassName) {
+        return Optional.ofNullable(quotaManagerFactories.get(quotaManagerClassName))
+                .orElseThrow(() -> new QuotaManagerNotRegisteredException(quotaManagerClassName));
+    }
+}
@@ -0,0 +1,18 @@
+package com.myseotoolbox.quota4j;
+
+/**
+ * Tells {@link QuotaService#tryAcquireInHierarchy(String, String, long)} who owns the state of a parent quota,
+ * e.g. the team of a user, then the organisation of the team.
+ */
+@FunctionalInterface
+public interface QuotaOwnerHierarchy {
+    /**
+     * Parent quotas belong to the same owner, e.g. a monthly quota on top of a per minute one
+     */
+    QuotaOwnerHierarchy SAME_OWNER = (ownerId, parentQuotaId) -> ownerId;
+
+    /**
+     * Returns the owner of the {@code parentQuotaId} state to debit when {@code ownerId} acquires one of its child quotas
+     */
+    String parentOf(String ownerId, String parentQuotaId);
+}
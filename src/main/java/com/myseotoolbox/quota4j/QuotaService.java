@@ -3,66 +3,410 @@ package com.myseotoolbox.quota4j;
 import com.myseotoolbox.quota4j.model.QuotaStateId;
 import com.myseotoolbox.quota4j.model.QuotaState;
 import com.myseotoolbox.quota4j.model.Quota;
+import com.myseotoolbox.quota4j.metrics.QuotaMetrics;
+import com.myseotoolbox.quota4j.persistence.ExpirableQuotaStatePersistence;
+import com.myseotoolbox.quota4j.persistence.QuotaStatePage;
 import com.myseotoolbox.quota4j.persistence.QuotaStatePersistence;
 import com.myseotoolbox.quota4j.persistence.QuotaPersistence;
 import com.myseotoolbox.quota4j.quotamanager.AcquireResponse;
 import com.myseotoolbox.quota4j.quotamanager.QuotaManager;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 public class QuotaService {
     private final QuotaPersistence quotaPersistence;
     private final QuotaStatePersistence quotaStatePersistence;
-    private final HashMap<String, QuotaManagerFactory> quotaManagerFactories = new HashMap<>();
-    private final HashMap<QuotaStateId, QuotaManager<?>> quotaManagers = new HashMap<>();
+    private final QuotaManagerRegistry quotaManagers;
+    private final StripedLocks locks;
+    private final QuotaServiceOptions options;
+    private final QuotaMetrics metrics;
+    private final DenyCache denyCache;
+    private final AtomicReference<String> sweepCursor = new AtomicReference<>();
 
     public QuotaService(QuotaPersistence quotaPersistence, QuotaStatePersistence quotaStatePersistence) {
+        this(quotaPersistence, quotaStatePersistence, QuotaServiceOptions.defaults());
+    }
+
+    public QuotaService(QuotaPersistence quotaPersistence, QuotaStatePersistence quotaStatePersistence, QuotaServiceOptions options) {
         this.quotaPersistence = quotaPersistence;
         this.quotaStatePersistence = quotaStatePersistence;
+        this.options = options;
+        this.locks = new StripedLocks(options.lockStripes());
+        this.quotaManagers = new QuotaManagerRegistry(options.perKeyQuotaManagersCacheSize());
+        this.metrics = options.metrics();
+        this.denyCache = options.denyCache();
+        metrics.bindQuotaManagersCacheSize(quotaManagers::size);
     }
 
     public AcquireResponse<?> tryAcquire(String ownerId, String quotaId, long quantity) throws QuotaManagerNotRegisteredException {
+        if (denyCache.isEnabled()) return tryAcquireWithRetryHint(ownerId, quotaId, quantity).response();
         QuotaStateId quotaStateId = QuotaStateId.create(ownerId, quotaId);
-        QuotaState quotaState = getQuotaState(quotaStateId);
-        AcquireResponse<?> response = getQuotaManager(quotaStateId, quotaState.quotaManagerClassName())
-                .tryAcquire(quotaState.currentState(), quantity);
-        quotaStatePersistence.save(quotaState.withUpdatedState(response.state()));
+        long start = System.nanoTime();
+        AcquireResponse<?> response = retryOnConflict(List.of(quotaStateId), () -> updateOnce(quotaStateId, (quotaManager, state) -> quotaManager.tryAcquire(state, quantity)));
+        metrics.acquired(quotaId, response.result(), System.nanoTime() - start);
         return response;
     }
 
+    /**
+     * Same as {@link #tryAcquire(String, String, long)}, but a declined response comes with an estimate of when retrying could succeed
+     */
+    public AcquireAttempt tryAcquireWithRetryHint(String ownerId, String quotaId, long quantity) throws QuotaManagerNotRegisteredException {
+        QuotaStateId quotaStateId = QuotaStateId.create(ownerId, quotaId);
+        long[] nanosUntilAvailable = {0};
+        long start = System.nanoTime();
+        AcquireAttempt cached = denyCache.check(quotaStateId, quantity);
+        if (cached != null) {
+            metrics.declinedLocally(quotaId);
+            metrics.acquired(quotaId, false, System.nanoTime() - start);
+            return cached;
+        }
+        AcquireResponse<?> response = retryOnConflict(List.of(quotaStateId), () -> updateOnce(quotaStateId, (quotaManager, state) -> {
+            AcquireResponse<?> attempt = quotaManager.tryAcquire(state, quantity);
+            nanosUntilAvailable[0] = attempt.result() ? 0 : quotaManager.nanosUntilAvailable(attempt.state(), quantity);
+            return attempt;
+        }, saved -> {
+            if (!saved.result()) denyCache.declined(quotaStateId, quantity, saved.state(), nanosUntilAvailable[0]);
+        }));
+        metrics.acquired(quotaId, response.result(), System.nanoTime() - start);
+        return AcquireAttempt.of(response, nanosUntilAvailable[0]);
+    }
+
+    /**
+     * Waits up to {@code maxWait} for the quantity to be granted. The thread is parked until the quota manager estimates
+     * it could be available, instead of polling. Gives up straight away if the wait would exceed {@code maxWait},
+     * returning the declined response.
+     */
+    public AcquireResponse<?> acquire(String ownerId, String quotaId, long quantity, Duration maxWait) throws InterruptedException {
+        long deadline = System.nanoTime() + maxWait.toNanos();
+        while (true) {
+            AcquireAttempt attempt = tryAcquireWithRetryHint(ownerId, quotaId, quantity);
+            if (attempt.granted() || attempt.retryAfter().isEmpty()) return attempt.response();
+            long waitNanos = attempt.waitNanos();
+            if (System.nanoTime() + waitNanos - deadline > 0) return attempt.response();
+            LockSupport.parkNanos(waitNanos);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Gives back units that were acquired and not used. Not every quota manager supports it,
+     * see {@link QuotaManager#release(Object, long)}
+     */
+    public AcquireResponse<?> release(String ownerId, String quotaId, long quantity) throws QuotaManagerNotRegisteredException {
+        QuotaStateId quotaStateId = QuotaStateId.create(ownerId, quotaId);
+        return retryOnConflict(List.of(quotaStateId), () -> updateOnce(quotaStateId, (quotaManager, state) -> quotaManager.release(state, quantity),
+                saved -> denyCache.invalidate(quotaStateId)));
+    }
+
+    /**
+     * Same as calling {@link #tryAcquire(String, String, long)} for each request, in order, but loads and saves
+     * all the involved states with a single batch. Returns one response per request, in the same order.
+     */
+    public List<AcquireResponse<?>> tryAcquireAll(Collection<AcquireRequest> requests) throws QuotaManagerNotRegisteredException {
+        List<AcquireRequest> acquireRequests = List.copyOf(requests);
+        long start = System.nanoTime();
+        List<AcquireResponse<?>> responses = acquireAll(acquireRequests, false);
+        long latency = System.nanoTime() - start;
+        for (int i = 0; i < acquireRequests.size(); i++) {
+            metrics.acquired(acquireRequests.get(i).quotaId(), responses.get(i).result(), latency);
+        }
+        return responses;
+    }
+
+    /**
+     * Acquires several quotas for the same owner atomically: either all of them are granted, or none of the states is changed.
+     * The response state maps each quota id to its state after the call.
+     */
+    public AcquireResponse<Map<String, Object>> tryAcquireAllOrNothing(String ownerId, Map<String, Long> quantitiesByQuotaId) throws QuotaManagerNotRegisteredException {
+        List<AcquireRequest> requests = quantitiesByQuotaId.entrySet().stream()
+                .map(entry -> AcquireRequest.of(ownerId, entry.getKey(), entry.getValue()))
+                .toList();
+        return acquireAllOrNothing(requests);
+    }
+
+    /**
+     * Acquires the quota together with its parents, following {@link Quota#parentQuotaId()}, each one for the owner given by
+     * {@link QuotaServiceOptions#ownerHierarchy()}. Like {@link #tryAcquireAllOrNothing(String, Map)}, the whole chain is loaded
+     * and saved with a single batch and either every level is granted or none is changed.
+     * The response state maps each quota id of the chain, starting from {@code quotaId}, to its state after the call.
+     * <p>
+     * Only the states are batched: each level's definition names the next one, so the chain costs one {@link QuotaPersistence}
+     * read per level. Wrap it in a {@link com.myseotoolbox.quota4j.persistence.cache.CachingQuotaPersistence} to serve
+     * them from memory.
+     */
+    public AcquireResponse<Map<String, Object>> tryAcquireInHierarchy(String ownerId, String quotaId, long quantity) throws QuotaManagerNotRegisteredException {
+        List<AcquireRequest> requests = hierarchyOf(ownerId, quotaId, quantity);
+        return acquireAllOrNothing(requests);
+    }
+
+    private AcquireResponse<Map<String, Object>> acquireAllOrNothing(List<AcquireRequest> requests) {
+        long start = System.nanoTime();
+        List<AcquireResponse<?>> responses = acquireAll(requests, true);
+        long latency = System.nanoTime() - start;
+        Map<String, Object> states = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            states.put(requests.get(i).quotaId(), responses.get(i).state());
+            metrics.acquired(requests.get(i).quotaId(), responses.get(i).result(), latency);
+        }
+        boolean granted = responses.stream().allMatch(AcquireResponse::result);
+        return granted ? AcquireResponse.grantedWithState(states) : AcquireResponse.declinedWithState(states);
+    }
+
+    /**
+     * One read per level, the parent id is only known once the child is loaded
+     */
+    private List<AcquireRequest> hierarchyOf(String ownerId, String quotaId, long quantity) {
+        List<AcquireRequest> requests = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        String owner = ownerId;
+        String current = quotaId;
+        while (current != null) {
+            if (!visited.add(current)) throw new IllegalStateException("Quota " + quotaId + " has a cycle in its parents at " + current);
+            String id = current;
+            Quota quota = quotaPersistence.findById(id).orElseThrow(() -> new QuotaNotFoundException(id));
+            requests.add(AcquireRequest.of(owner, id, quantity));
+            current = quota.parentQuotaId();
+            if (current != null) owner = options.ownerHierarchy().parentOf(owner, current);
+        }
+        return requests;
+    }
+
     public Object getQuotaState(String ownerId, String quotaId) {
         QuotaStateId quotaStateId = QuotaStateId.create(ownerId, quotaId);
-        QuotaState quotaState = getQuotaState(quotaStateId);
-        Object newState = getQuotaManager(quotaStateId, quotaState.quotaManagerClassName())
-                .getCurrentState(quotaState.currentState());
-        quotaStatePersistence.save(quotaState.withUpdatedState(newState));
-        return newState;
+        long start = System.nanoTime();
+        Object state = retryOnConflict(List.of(quotaStateId), () -> getCurrentStateOnce(quotaStateId));
+        metrics.stateQueried(quotaId, System.nanoTime() - start);
+        return state;
+    }
+
+    private Object getCurrentStateOnce(QuotaStateId quotaStateId) {
+        Lock lock = locks.lockFor(quotaStateId);
+        lock.lock();
+        try {
+            QuotaState quotaState = getQuotaState(quotaStateId);
+            Object newState = getQuotaManager(quotaStateId, quotaState.quotaManagerClassName())
+                    .getCurrentState(quotaState.currentState());
+            if (quotaState.hasState(newState)) return newState;
+            if (!saveIfChanged(quotaState, newState)) return null;
+            metrics.refilled(quotaStateId.quotaId());
+            return newState;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes idle states, see {@link QuotaManager#isIdle(Object, Object)}, among the next {@code maxStates} of the store.
+     * Each call continues from where the previous one stopped and wraps around, so call it periodically with a small batch
+     * to keep the store bounded without stalling traffic. States are locked one at a time and only deleted if unchanged.
+     * Requires an {@link ExpirableQuotaStatePersistence}. Returns the number of deleted states.
+     */
+    public int sweepIdleStates(int maxStates) {
+        if (!(quotaStatePersistence instanceof ExpirableQuotaStatePersistence expirable)) {
+            throw new UnsupportedOperationException(quotaStatePersistence.getClass().getName() + " does not support deleting states");
+        }
+        QuotaStatePage page = expirable.scan(sweepCursor.get(), maxStates);
+        sweepCursor.set(page.nextCursor());
+        Set<String> quotaIds = page.states().stream().map(quotaState -> quotaState.id().quotaId()).collect(Collectors.toSet());
+        Map<String, Quota> quotas = quotaIds.isEmpty() ? Map.of() : quotaPersistence.findAllById(quotaIds).stream()
+                .collect(Collectors.toMap(Quota::id, Function.identity()));
+        int deleted = 0;
+        for (QuotaState quotaState : page.states()) {
+            Quota quota = quotas.get(quotaState.id().quotaId());
+            if (quota != null && deleteIfIdle(expirable, quotaState, quota)) deleted++;
+        }
+        return deleted;
+    }
+
+    private boolean deleteIfIdle(ExpirableQuotaStatePersistence expirable, QuotaState quotaState, Quota quota) {
+        if (!quotaState.quotaManagerClassName().equals(quota.quotaManagerClassName()) || !quotaManagers.isRegistered(quotaState.quotaManagerClassName())) {
+            return false;
+        }
+        Lock lock = locks.lockFor(quotaState.id());
+        lock.lock();
+        try {
+            QuotaManager<Object> quotaManager = getQuotaManager(quotaState.id(), quotaState.quotaManagerClassName());
+            if (!quotaManager.isIdle(quotaState.currentState(), quota.defaultState())) return false;
+            boolean deleted = expirable.deleteIfVersion(quotaState.id(), quotaState.version());
+            if (deleted) quotaManagers.evict(quotaState.id());
+            return deleted;
+        } finally {
+            lock.unlock();
+        }
     }
 
     public void registerQuotaManagerFactory(String className, QuotaManagerFactory quotaManagerFactory) {
-        quotaManagerFactories.put(className, quotaManagerFactory);
+        quotaManagers.register(className, quotaManagerFactory);
+    }
+
+    /**
+     * Returns false if somebody else updated the state since it was read
+     */
+    private boolean saveIfChanged(QuotaState quotaState, Object newState) {
+        if (quotaState.hasState(newState)) return true;
+        QuotaState updated = quotaState.withUpdatedState(newState).withNextVersion();
+        long start = System.nanoTime();
+        boolean saved = quotaStatePersistence.compareAndSave(quotaState.version(), updated);
+        metrics.stateSaved(System.nanoTime() - start);
+        if (saved) options.stateChangeFeed().publish(updated);
+        return saved;
+    }
+
+    /**
+     * Attempts return null when the state they read was concurrently updated by another node.
+     * They are retried with an exponential backoff, all the local locks released.
+     */
+    private <T> T retryOnConflict(Collection<QuotaStateId> quotaStateIds, Supplier<T> attempt) {
+        for (int retry = 0; retry <= options.maxConflictRetries(); retry++) {
+            T result = attempt.get();
+            if (result != null) return result;
+            quotaStateIds.forEach(quotaStateId -> metrics.conflict(quotaStateId.quotaId()));
+            backoff(retry);
+        }
+        throw new ConcurrentQuotaUpdateException(quotaStateIds);
+    }
+
+    private void backoff(int retry) {
+        long maxBackoffNanos = options.conflictBackoff().toNanos() << Math.min(retry, 16);
+        if (maxBackoffNanos > 0) {
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(maxBackoffNanos / 2, maxBackoffNanos + 1));
+        }
+    }
+
+    private AcquireResponse<?> updateOnce(QuotaStateId quotaStateId, BiFunction<QuotaManager<Object>, Object, AcquireResponse<?>> operation) {
+        return updateOnce(quotaStateId, operation, saved -> { });
+    }
+
+    /**
+     * {@code onSaved} runs while still holding the stripe lock, so that deny cache updates are ordered like the saves they follow:
+     * a decline cached after the lock is released could land after the invalidation of a release saved meanwhile.
+     */
+    private AcquireResponse<?> updateOnce(QuotaStateId quotaStateId, BiFunction<QuotaManager<Object>, Object, AcquireResponse<?>> operation,
+                                          Consumer<AcquireResponse<?>> onSaved) {
+        Lock lock = locks.lockFor(quotaStateId);
+        lock.lock();
+        try {
+            QuotaState quotaState = getQuotaState(quotaStateId);
+            AcquireResponse<?> response = operation.apply(getQuotaManager(quotaStateId, quotaState.quotaManagerClassName()), quotaState.currentState());
+            if (!saveIfChanged(quotaState, response.state())) return null;
+            onSaved.accept(response);
+            return response;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<AcquireResponse<?>> acquireAll(List<AcquireRequest> requests, boolean allOrNothing) {
+        Set<QuotaStateId> quotaStateIds = requests.stream().map(AcquireRequest::quotaStateId).collect(Collectors.toCollection(LinkedHashSet::new));
+        return retryOnConflict(quotaStateIds, () -> acquireAllOnce(requests, quotaStateIds, allOrNothing));
+    }
+
+    private List<AcquireResponse<?>> acquireAllOnce(List<AcquireRequest> requests, Set<QuotaStateId> quotaStateIds, boolean allOrNothing) {
+        int[] stripes = locks.lockAll(quotaStateIds);
+        try {
+            Map<QuotaStateId, QuotaState> originalStates = getQuotaStates(quotaStateIds);
+            Map<QuotaStateId, QuotaState> states = new HashMap<>(originalStates);
+            List<AcquireResponse<?>> responses = new ArrayList<>(requests.size());
+            for (AcquireRequest request : requests) {
+                QuotaState quotaState = states.get(request.quotaStateId());
+                AcquireResponse<?> response = getQuotaManager(quotaState.id(), quotaState.quotaManagerClassName())
+                        .tryAcquire(quotaState.currentState(), request.quantity());
+                states.put(quotaState.id(), quotaState.withUpdatedState(response.state()));
+                responses.add(response);
+            }
+            if (allOrNothing && !responses.stream().allMatch(AcquireResponse::result)) {
+                return declinedWithUnchangedStates(requests, originalStates);
+            }
+            return saveAllIfChanged(originalStates, states) ? responses : null;
+        } finally {
+            locks.unlockAll(stripes);
+        }
+    }
+
+    /**
+     * Nothing of a rolled back batch is saved, so every request is declined, including the ones that would have been granted alone
+     */
+    private List<AcquireResponse<?>> declinedWithUnchangedStates(List<AcquireRequest> requests, Map<QuotaStateId, QuotaState> originalStates) {
+        List<AcquireResponse<?>> unchanged = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            QuotaState originalState = originalStates.get(requests.get(i).quotaStateId());
+            Object currentState = getQuotaManager(originalState.id(), originalState.quotaManagerClassName())
+                    .getCurrentState(originalState.currentState());
+            unchanged.add(AcquireResponse.declinedWithState(currentState));
+        }
+        return unchanged;
+    }
+
+    private boolean saveAllIfChanged(Map<QuotaStateId, QuotaState> originalStates, Map<QuotaStateId, QuotaState> newStates) {
+        List<QuotaState> changed = newStates.values().stream()
+                .filter(newState -> !originalStates.get(newState.id()).hasState(newState.currentState()))
+                .map(QuotaState::withNextVersion)
+                .toList();
+        if (changed.isEmpty()) return true;
+        long start = System.nanoTime();
+        boolean saved = quotaStatePersistence.compareAndSaveAll(changed);
+        metrics.stateSaved(System.nanoTime() - start);
+        if (saved) changed.forEach(options.stateChangeFeed()::publish);
+        return saved;
+    }
+
+    private Map<QuotaStateId, QuotaState> getQuotaStates(Collection<QuotaStateId> quotaStateIds) {
+        Map<QuotaStateId, QuotaState> states = new HashMap<>();
+        long start = System.nanoTime();
+        List<QuotaState> found = quotaStatePersistence.findAllById(quotaStateIds);
+        metrics.stateLoaded(System.nanoTime() - start);
+        found.forEach(quotaState -> states.put(quotaState.id(), quotaState));
+        List<QuotaStateId> missing = quotaStateIds.stream().filter(id -> !states.containsKey(id)).toList();
+        if (!missing.isEmpty()) {
+            Set<String> quotaIds = missing.stream().map(QuotaStateId::quotaId).collect(Collectors.toSet());
+            Map<String, Quota> quotas = quotaPersistence.findAllById(quotaIds).stream()
+                    .collect(Collectors.toMap(Quota::id, Function.identity()));
+            for (QuotaStateId quotaStateId : missing) {
+                Quota quota = quotas.get(quotaStateId.quotaId());
+                if (quota == null) throw new QuotaNotFoundException(quotaStateId.quotaId());
+                states.put(quotaStateId, newQuotaState(quotaStateId, quota));
+            }
+        }
+        return states;
     }
 
     private QuotaState getQuotaState(QuotaStateId quotaStateId) {
-        return quotaStatePersistence
-                .findById(quotaStateId)
-                .orElseGet(() -> createFor(quotaStateId));
+        long start = System.nanoTime();
+        Optional<QuotaState> quotaState = quotaStatePersistence.findById(quotaStateId);
+        metrics.stateLoaded(System.nanoTime() - start);
+        return quotaState.orElseGet(() -> createFor(quotaStateId));
     }
 
     private QuotaState createFor(QuotaStateId quotaStateId) {
         Quota quota = quotaPersistence.findById(quotaStateId.quotaId()).orElseThrow(() -> new QuotaNotFoundException(quotaStateId.quotaId()));
+        return newQuotaState(quotaStateId, quota);
+    }
+
+    private QuotaState newQuotaState(QuotaStateId quotaStateId, Quota quota) {
         return new QuotaState(quotaStateId, quota.quotaManagerClassName(), quota.defaultState());
     }
 
     private QuotaManager<Object> getQuotaManager(QuotaStateId quotaStateId, String quotaManagerClassName) {
-        QuotaManager<?> quotaManager = quotaManagers.computeIfAbsent(quotaStateId, it -> {
-            QuotaManagerFactory quotaManagerFactory =
-                    Optional.ofNullable(quotaManagerFactories.get(quotaManagerClassName))
-                            .orElseThrow(() -> new QuotaManagerNotRegisteredException(quotaManagerClassName));
-            return quotaManagerFactory.build();
-        });
-        return (QuotaManager<Object>) quotaManager;
+        return quotaManagers.get(quotaStateId, quotaManagerClassName);
     }
 
 
@@ -0,0 +1,63 @@
+package com.myseotoolbox.quota4j;
+
+import com.myseotoolbox.quota4j.events.StateChangeFeed;
+import com.myseotoolbox.quota4j.metrics.QuotaMetrics;
+
+import java.time.Duration;
+
+/**
+ * @param lockStripes                  number of locks used to serialize updates of the same {@link com.myseotoolbox.quota4j.model.QuotaStateId}.
+ *                                     Unrelated owners only contend if they hash to the same stripe.
+ * @param perKeyQuotaManagersCacheSize max number of managers kept for factories that are not {@link QuotaManagerFactory#isShareable()}.
+ *                                     Least recently used ones are evicted and rebuilt on demand.
+ * @param maxConflictRetries           how many times an acquire is retried when another node updated the same state in the meantime
+ * @param conflictBackoff              base wait before retrying after a conflict, doubled on every retry
+ * @param metrics                      instrumentation hooks, {@link QuotaMetrics#NOOP} by default
+ * @param stateChangeFeed              receives every saved state, {@link StateChangeFeed#NOOP} by default
+ * @param denyCache                    declines retries of exhausted quotas without reading the state, {@link DenyCache#disabled()} by default
+ * @param ownerHierarchy               owners of the parent quota states, {@link QuotaOwnerHierarchy#SAME_OWNER} by default
+ */
+public record QuotaServiceOptions(int lockStripes, int perKeyQuotaManagersCacheSize, int maxConflictRetries, Duration conflictBackoff,
+                                  QuotaMetrics metrics, StateChangeFeed stateChangeFeed, DenyCache denyCache,
+                                  QuotaOwnerHierarchy ownerHierarchy) {
+    public static final int DEFAULT_LOCK_STRIPES = 1024;
+    public static final int DEFAULT_PER_KEY_QUOTA_MANAGERS_CACHE_SIZE = 10_000;
+    public static final int DEFAULT_MAX_CONFLICT_RETRIES = 5;
+    public static final Duration DEFAULT_CONFLICT_BACKOFF = Duration.ofMillis(2);
+
+    public static QuotaServiceOptions defaults() {
+        return new QuotaServiceOptions(DEFAULT_LOCK_STRIPES, DEFAULT_PER_KEY_QUOTA_MANAGERS_CACHE_SIZE, DEFAULT_MAX_CONFLICT_RETRIES, DEFAULT_CONFLICT_BACKOFF, QuotaMetrics.NOOP, StateChangeFeed.NOOP, DenyCache.disabled(), QuotaOwnerHierarchy.SAME_OWNER);
+    }
+
+    public QuotaServiceOptions withLockStripes(int lockStripes) {
+        return new QuotaServiceOptions(lockStripes, perKeyQuotaManagersCacheSize, maxConflictRetries, conflictBackoff, metrics, stateChangeFeed, denyCache, ownerHierarchy);
+    }
+
+    public QuotaServiceOptions withPerKeyQuotaManagersCacheSize(int perKeyQuotaManagersCacheSize) {
+        return new QuotaServiceOptions(lockStripes, perKeyQuotaManagersCacheSize, maxConflictRetries, conflictBackoff, metrics, stateChangeFeed, denyCache, ownerHierarchy);
+    }
+
+    public QuotaServiceOptions withMaxConflictRetries(int maxConflictRetries) {
+        return new QuotaServiceOptions(lockStripes, perKeyQuotaManagersCacheSize, maxConflictRetries, conflictBackoff, metrics, stateChangeFeed, denyCache, ownerHierarchy);
+    }
+
+    public QuotaServiceOptions withConflictBackoff(Duration conflictBackoff) {
+        return new QuotaServiceOptions(lockStripes, perKeyQuotaManagersCacheSize, maxConflictRetries, conflictBackoff, metrics, stateChangeFeed, denyCache, ownerHierarchy);
+    }
+
+    public QuotaServiceOptions withMetrics(QuotaMetrics metrics) {
+        return new QuotaServiceOptions(lockStripes, perKeyQuotaManagersCacheSize, maxConflictRetries, conflictBackoff, metrics, stateChangeFeed, denyCache, ownerHierarchy);
+    }
+
+    public QuotaServiceOptions withStateChangeFeed(StateChangeFeed stateChangeFeed) {
+        return new QuotaServiceOptions(lockStripes, perKeyQuotaManagersCacheSize, maxConflictRetries, conflictBackoff, metrics, stateChangeFeed, denyCache, ownerHierarchy);
+    }
+
+    public QuotaServiceOptions withDenyCache(DenyCache denyCache) {
+        return new QuotaServiceOptions(lockStripes, perKeyQuotaManagersCacheSize, maxConflictRetries, conflictBackoff, metrics, stateChangeFeed, denyCache, ownerHierarchy);
+    }
+
+    public QuotaServiceOptions withOwnerHierarchy(QuotaOwnerHierarchy ownerHierarchy) {
+        return new QuotaServiceOptions(lockStripes, perKeyQuotaManagersCacheSize, maxConflictRetries, conflictBackoff, metrics, stateChangeFeed, denyCache, ownerHierarchy);
+    }
+}
@@ -0,0 +1,347 @@
+package com.myseotoolbox.quota4j;
+
+import com.myseotoolbox.quota4j.metrics.QuotaMetrics;
+import com.myseotoolbox.quota4j.model.Quota;
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.persistence.QuotaPersistence;
+import com.myseotoolbox.quota4j.persistence.QuotaStatePersistence;
+import com.myseotoolbox.quota4j.quotamanager.AcquireResponse;
+import com.myseotoolbox.quota4j.quotamanager.QuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeBucket;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeState;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Alternative to {@link QuotaService} for hot owners: every {@link QuotaStateId} belongs to one of N shards, each one
+ * a single thread that owns its states in a plain map. Acquires are queued to the owning shard and processed in batches:
+ * no lock is taken, and each batch is loaded and saved with one round trip to the persistence. States of a plain
+ * {@link QuantityOverTimeQuotaManager} are kept in a {@link QuantityOverTimeBucket} and updated in place.
+ * <p>
+ * Futures are completed on the shard threads, use the async variants of {@link CompletableFuture} to continue elsewhere.
+ * Saves are version checked: the requests on a state another node changed are applied again to the reloaded state, up to
+ * {@link ShardedQuotaEngineOptions#maxConflictRetries()} times, then fail with {@link ConcurrentQuotaUpdateException}.
+ * Unlike {@link QuotaService} there is no backoff between retries, it would stall the whole shard.
+ */
+public class ShardedQuotaEngine implements AutoCloseable {
+    private final QuotaPersistence quotaPersistence;
+    private final QuotaStatePersistence quotaStatePersistence;
+    private final ShardedQuotaEngineOptions options;
+    private final QuotaManagerRegistry quotaManagers;
+    private final QuotaMetrics metrics;
+    private final Shard[] shards;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicInteger submitting = new AtomicInteger();
+
+    public ShardedQuotaEngine(QuotaPersistence quotaPersistence, QuotaStatePersistence quotaStatePersistence) {
+        this(quotaPersistence, quotaStatePersistence, ShardedQuotaEngineOptions.defaults());
+    }
+
+    public ShardedQuotaEngine(QuotaPersistence quotaPersistence, QuotaStatePersistence quotaStatePersistence, ShardedQuotaEngineOptions options) {
+        if (options.shards() < 1) throw new IllegalArgumentException("shards must be positive: " + options.shards());
+        if (options.maxBatchSize() > options.maxStatesPerShard()) {
+            throw new IllegalArgumentException("maxBatchSize can't exceed maxStatesPerShard, a batch would evict its own states");
+        }
+        this.quotaPersistence = quotaPersistence;
+        this.quotaStatePersistence = quotaStatePersistence;
+        this.options = options;
+        this.metrics = options.metrics();
+        this.quotaManagers = new QuotaManagerRegistry(QuotaServiceOptions.DEFAULT_PER_KEY_QUOTA_MANAGERS_CACHE_SIZE);
+        this.shards = new Shard[options.shards()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    public CompletableFuture<AcquireResponse<?>> tryAcquire(String ownerId, String quotaId, long quantity) {
+        // counted before checking closed, so that the shards wait for this request before their last drain
+        submitting.incrementAndGet();
+        try {
+            if (closed.get()) return CompletableFuture.failedFuture(new IllegalStateException("Engine is closed"));
+            QuotaStateId quotaStateId = QuotaStateId.create(ownerId, quotaId);
+            Request request = new Request(quotaStateId, quantity, System.nanoTime(), new CompletableFuture<>());
+            shards[shardOf(quotaStateId)].submit(request);
+            return request.response();
+        } finally {
+            submitting.decrementAndGet();
+        }
+    }
+
+    public void registerQuotaManagerFactory(String className, QuotaManagerFactory quotaManagerFactory) {
+        quotaManagers.register(className, quotaManagerFactory);
+    }
+
+    /**
+     * Stops accepting requests and waits for the queued ones to be processed
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.thread);
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private int shardOf(QuotaStateId quotaStateId) {
+        int h = quotaStateId.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return Math.floorMod(h, shards.length);
+    }
+
+    private class Shard {
+        private final ConcurrentLinkedQueue<Request> queue = new ConcurrentLinkedQueue<>();
+        private final LinkedHashMap<QuotaStateId, Slot> slots;
+        private final Thread thread;
+        private volatile boolean sleeping;
+
+        Shard(int index) {
+            this.slots = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<QuotaStateId, Slot> eldest) {
+                    return size() > options.maxStatesPerShard();
+                }
+            };
+            this.thread = new Thread(this::run, "quota4j-shard-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void submit(Request request) {
+            queue.offer(request);
+            if (sleeping) LockSupport.unpark(thread);
+        }
+
+        private void run() {
+            List<Request> batch = new ArrayList<>(options.maxBatchSize());
+            while (true) {
+                boolean wasClosed = closed.get() && submitting.get() == 0;
+                Request request;
+                while (batch.size() < options.maxBatchSize() && (request = queue.poll()) != null) {
+                    batch.add(request);
+                }
+                if (!batch.isEmpty()) {
+                    process(batch);
+                    batch.clear();
+                } else if (wasClosed) {
+                    return;
+                } else {
+                    sleeping = true;
+                    if (queue.isEmpty()) LockSupport.parkNanos(options.idleWait().toNanos());
+                    sleeping = false;
+                }
+            }
+        }
+
+        /**
+         * Requests on states another node changed meanwhile are applied again to the reloaded states, the others are completed
+         */
+        private void process(List<Request> batch) {
+            List<Request> pending = batch;
+            for (int retry = 0; ; retry++) {
+                Map<QuotaStateId, Slot> batchSlots;
+                try {
+                    batchSlots = load(pending);
+                } catch (RuntimeException e) {
+                    pending.forEach(request -> request.response().completeExceptionally(e));
+                    return;
+                }
+                Map<QuotaStateId, Slot> touched = new LinkedHashMap<>();
+                List<Request> processed = new ArrayList<>(pending.size());
+                List<AcquireResponse<?>> responses = new ArrayList<>(pending.size());
+                for (Request request : pending) {
+                    Slot slot = batchSlots.get(request.quotaStateId());
+                    if (slot == null) {
+                        request.response().completeExceptionally(new QuotaNotFoundException(request.quotaStateId().quotaId()));
+                        continue;
+                    }
+                    try {
+                        QuotaState saved = slot.saved();
+                        AcquireResponse<?> response = slot.acquire(quotaManagers.get(saved.id(), saved.quotaManagerClassName()), request.quantity());
+                        touched.putIfAbsent(saved.id(), slot);
+                        processed.add(request);
+                        responses.add(response);
+                    } catch (RuntimeException e) {
+                        request.response().completeExceptionally(e);
+                    }
+                }
+                Set<QuotaStateId> conflicts;
+                try {
+                    conflicts = save(touched);
+                } catch (RuntimeException e) {
+                    touched.keySet().forEach(slots::remove);
+                    processed.forEach(request -> request.response().completeExceptionally(e));
+                    return;
+                }
+                conflicts.forEach(quotaStateId -> {
+                    slots.remove(quotaStateId);
+                    metrics.conflict(quotaStateId.quotaId());
+                });
+                List<Request> retries = new ArrayList<>();
+                for (int i = 0; i < processed.size(); i++) {
+                    Request request = processed.get(i);
+                    if (conflicts.contains(request.quotaStateId())) {
+                        retries.add(request);
+                    } else {
+                        AcquireResponse<?> response = responses.get(i);
+                        metrics.acquired(request.quotaStateId().quotaId(), response.result(), System.nanoTime() - request.submittedAtNanos());
+                        request.response().complete(response);
+                    }
+                }
+                if (retries.isEmpty()) return;
+                if (retry == options.maxConflictRetries()) {
+                    ConcurrentQuotaUpdateException failure = new ConcurrentQuotaUpdateException(conflicts);
+                    retries.forEach(request -> request.response().completeExceptionally(failure));
+                    return;
+                }
+                pending = retries;
+            }
+        }
+
+        /**
+         * Returns the states of the batch, loading the ones this shard doesn't own yet. The owned ones are looked up first,
+         * which makes them the most recently used, so the loaded ones never evict them.
+         * Requests for quotas that don't exist have no state.
+         */
+        private Map<QuotaStateId, Slot> load(List<Request> batch) {
+            Map<QuotaStateId, Slot> batchSlots = new HashMap<>();
+            Set<QuotaStateId> missing = new LinkedHashSet<>();
+            for (Request request : batch) {
+                Slot slot = slots.get(request.quotaStateId());
+                if (slot != null) batchSlots.put(request.quotaStateId(), slot);
+                else missing.add(request.quotaStateId());
+            }
+            if (missing.isEmpty()) return batchSlots;
+            long start = System.nanoTime();
+            quotaStatePersistence.findAllById(missing).forEach(quotaState -> {
+                own(batchSlots, new Slot(quotaState));
+                missing.remove(quotaState.id());
+            });
+            metrics.stateLoaded(System.nanoTime() - start);
+            if (missing.isEmpty()) return batchSlots;
+            Set<String> quotaIds = missing.stream().map(QuotaStateId::quotaId).collect(Collectors.toSet());
+            Map<String, Quota> quotas = quotaPersistence.findAllById(quotaIds).stream().collect(Collectors.toMap(Quota::id, Function.identity()));
+            for (QuotaStateId quotaStateId : missing) {
+                Quota quota = quotas.get(quotaStateId.quotaId());
+                if (quota != null) own(batchSlots, new Slot(new QuotaState(quotaStateId, quota.quotaManagerClassName(), quota.defaultState())));
+            }
+            return batchSlots;
+        }
+
+        private void own(Map<QuotaStateId, Slot> batchSlots, Slot slot) {
+            QuotaStateId quotaStateId = slot.saved().id();
+            slots.put(quotaStateId, slot);
+            batchSlots.put(quotaStateId, slot);
+        }
+
+        /**
+         * Saves the changed states and publishes them. Returns the ids of the states another node changed meanwhile, which
+         * are not saved: a batch save is all or nothing, so after a conflict the other states are saved again without them.
+         */
+        private Set<QuotaStateId> save(Map<QuotaStateId, Slot> touched) {
+            List<QuotaState> changed = new ArrayList<>();
+            for (Slot slot : touched.values()) {
+                Object currentState = slot.currentState();
+                if (!slot.saved().hasState(currentState)) changed.add(slot.saved().withUpdatedState(currentState).withNextVersion());
+            }
+            Set<QuotaStateId> conflicts = new HashSet<>();
+            while (!changed.isEmpty()) {
+                long start = System.nanoTime();
+                boolean saved = quotaStatePersistence.compareAndSaveAll(changed);
+                metrics.stateSaved(System.nanoTime() - start);
+                if (saved) {
+                    for (QuotaState quotaState : changed) {
+                        touched.get(quotaState.id()).saved(quotaState);
+                        options.stateChangeFeed().publish(quotaState);
+                    }
+                    break;
+                }
+                Set<QuotaStateId> changedElsewhere = changedElsewhere(changed);
+                // versions only grow, a save failing with none of them changed can't be blamed on one state
+                if (changedElsewhere.isEmpty()) changed.forEach(quotaState -> changedElsewhere.add(quotaState.id()));
+                conflicts.addAll(changedElsewhere);
+                changed.removeIf(quotaState -> changedElsewhere.contains(quotaState.id()));
+            }
+            return conflicts;
+        }
+
+        private Set<QuotaStateId> changedElsewhere(List<QuotaState> changed) {
+            Map<QuotaStateId, Long> currentVersions = new HashMap<>();
+            quotaStatePersistence.findAllById(changed.stream().map(QuotaState::id).toList())
+                    .forEach(quotaState -> currentVersions.put(quotaState.id(), quotaState.version()));
+            Set<QuotaStateId> changedElsewhere = new HashSet<>();
+            for (QuotaState quotaState : changed) {
+                if (currentVersions.getOrDefault(quotaState.id(), 0L) != quotaState.version() - 1) changedElsewhere.add(quotaState.id());
+            }
+            return changedElsewhere;
+        }
+    }
+
+    /**
+     * A state owned by a shard: the version last read or written, and the current state. Quantity over time states are kept
+     * in a {@link QuantityOverTimeBucket}, so acquiring updates them in place instead of allocating a new state.
+     */
+    private static final class Slot {
+        private QuotaState saved;
+        private Object current;
+        private QuantityOverTimeBucket bucket;
+
+        Slot(QuotaState saved) {
+            this.saved = saved;
+            this.current = saved.currentState();
+        }
+
+        QuotaState saved() {
+            return saved;
+        }
+
+        void saved(QuotaState saved) {
+            this.saved = saved;
+        }
+
+        Object currentState() {
+            return bucket != null ? bucket.toState() : current;
+        }
+
+        AcquireResponse<?> acquire(QuotaManager<Object> quotaManager, long quantity) {
+            if (bucket == null && quotaManager.getClass() == QuantityOverTimeQuotaManager.class && current instanceof QuantityOverTimeState state) {
+                bucket = QuantityOverTimeBucket.from(state);
+            }
+            if (bucket != null) {
+                boolean granted = ((QuantityOverTimeQuotaManager) (Object) quotaManager).tryAcquire(bucket, quantity);
+                return new AcquireResponse<>(bucket.toState(), granted);
+            }
+            AcquireResponse<?> response = quotaManager.tryAcquire(current, quantity);
+            current = response.state();
+            return response;
+        }
+    }
+
+    private record Request(QuotaStateId quotaStateId, long quantity, long submittedAtNanos, CompletableFuture<AcquireResponse<?>> response) {
+    }
+}
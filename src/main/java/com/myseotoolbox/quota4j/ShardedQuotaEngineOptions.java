@@ -0,0 +1,52 @@
+package com.myseotoolbox.quota4j;
+
+import com.myseotoolbox.quota4j.events.StateChangeFeed;
+import com.myseotoolbox.quota4j.metrics.QuotaMetrics;
+
+import java.time.Duration;
+
+/**
+ * @param shards             number of single threaded shards, usually the number of cores
+ * @param maxStatesPerShard  states kept in memory by each shard, least recently used ones are evicted and reloaded on demand
+ * @param maxBatchSize       max number of requests a shard loads and saves with one round trip
+ * @param idleWait           how long an idle shard sleeps before checking its queue again, new requests wake it up earlier
+ * @param maxConflictRetries how many times the requests on a state changed by another node are reloaded and applied again
+ * @param metrics            receives acquire results and persistence latencies
+ * @param stateChangeFeed    receives every saved state, on the shard thread
+ */
+public record ShardedQuotaEngineOptions(int shards, int maxStatesPerShard, int maxBatchSize, Duration idleWait, int maxConflictRetries,
+                                        QuotaMetrics metrics, StateChangeFeed stateChangeFeed) {
+
+    public static ShardedQuotaEngineOptions defaults() {
+        return new ShardedQuotaEngineOptions(Runtime.getRuntime().availableProcessors(), 100_000, 256, Duration.ofMillis(10),
+                QuotaServiceOptions.DEFAULT_MAX_CONFLICT_RETRIES, QuotaMetrics.NOOP, StateChangeFeed.NOOP);
+    }
+
+    public ShardedQuotaEngineOptions withShards(int shards) {
+        return new ShardedQuotaEngineOptions(shards, maxStatesPerShard, maxBatchSize, idleWait, maxConflictRetries, metrics, stateChangeFeed);
+    }
+
+    public ShardedQuotaEngineOptions withMaxStatesPerShard(int maxStatesPerShard) {
+        return new ShardedQuotaEngineOptions(shards, maxStatesPerShard, maxBatchSize, idleWait, maxConflictRetries, metrics, stateChangeFeed);
+    }
+
+    public ShardedQuotaEngineOptions withMaxBatchSize(int maxBatchSize) {
+        return new ShardedQuotaEngineOptions(shards, maxStatesPerShard, maxBatchSize, idleWait, maxConflictRetries, metrics, stateChangeFeed);
+    }
+
+    public ShardedQuotaEngineOptions withIdleWait(Duration idleWait) {
+        return new ShardedQuotaEngineOptions(shards, maxStatesPerShard, maxBatchSize, idleWait, maxConflictRetries, metrics, stateChangeFeed);
+    }
+
+    public ShardedQuotaEngineOptions withMaxConflictRetries(int maxConflictRetries) {
+        return new ShardedQuotaEngineOptions(shards, maxStatesPerShard, maxBatchSize, idleWait, maxConflictRetries, metrics, stateChangeFeed);
+    }
+
+    public ShardedQuotaEngineOptions withMetrics(QuotaMetrics metrics) {
+        return new ShardedQuotaEngineOptions(shards, maxStatesPerShard, maxBatchSize, idleWait, maxConflictRetries, metrics, stateChangeFeed);
+    }
+
+    public ShardedQuotaEngineOptions withStateChangeFeed(StateChangeFeed stateChangeFeed) {
+        return new ShardedQuotaEngineOptions(shards, maxStatesPerShard, maxBatchSize, idleWait, maxConflictRetries, metrics, stateChangeFeed);
+    }
+}
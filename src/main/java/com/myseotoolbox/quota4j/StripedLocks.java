@@ -0,0 +1,62 @@
+package com.myseotoolbox.quota4j;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed pool of locks, a key always maps to the same stripe.
+ * Keys on different stripes never contend with each other.
+ */
+class StripedLocks {
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    StripedLocks(int stripes) {
+        if (stripes < 1) throw new IllegalArgumentException("stripes must be positive: " + stripes);
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) size <<= 1;
+        this.locks = new ReentrantLock[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    ReentrantLock lockFor(Object key) {
+        return locks[stripeOf(key)];
+    }
+
+    /**
+     * Locks the stripes of all the keys, always in the same order so that two callers can't deadlock.
+     * Returns the locked stripes, to be released with {@link #unlockAll(int[])}
+     */
+    int[] lockAll(Collection<?> keys) {
+        int[] stripes = keys.stream().mapToInt(this::stripeOf).distinct().sorted().toArray();
+        int locked = 0;
+        try {
+            for (; locked < stripes.length; locked++) {
+                locks[stripes[locked]].lock();
+            }
+        } finally {
+            if (locked < stripes.length) {
+                unlockAll(Arrays.copyOf(stripes, locked));
+            }
+        }
+        return stripes;
+    }
+
+    void unlockAll(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+
+    private int stripeOf(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h & mask;
+    }
+}
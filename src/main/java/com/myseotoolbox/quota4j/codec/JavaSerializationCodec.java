@@ -0,0 +1,57 @@
+package com.myseotoolbox.quota4j.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Fallback for states without a dedicated codec. Slow and bulky, but works with anything {@link java.io.Serializable}.
+ * <p>
+ * {@link QuotaStateCodecs} serializes once with {@link #serialize(Object)} and writes the bytes with
+ * {@link #write(byte[], ByteBuffer)}, {@link #encodedSize(Object)} followed by {@link #encode(Object, ByteBuffer)}
+ * would serialize the state twice.
+ */
+class JavaSerializationCodec implements QuotaStateCodec<Object> {
+
+    @Override
+    public int encodedSize(Object state) {
+        return Integer.BYTES + serialize(state).length;
+    }
+
+    @Override
+    public void encode(Object state, ByteBuffer buffer) {
+        write(serialize(state), buffer);
+    }
+
+    static void write(byte[] serialized, ByteBuffer buffer) {
+        buffer.putInt(serialized.length);
+        buffer.put(serialized);
+    }
+
+    @Override
+    public Object decode(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static byte[] serialize(Object state) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(state);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,19 @@
+package com.myseotoolbox.quota4j.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary encoding of the state handled by a {@link com.myseotoolbox.quota4j.quotamanager.QuotaManager}.
+ * Registered per quota manager class name in {@link QuotaStateCodecs}.
+ */
+public interface QuotaStateCodec<T> {
+
+    /**
+     * Number of bytes {@link #encode(Object, ByteBuffer)} will write for the given state
+     */
+    int encodedSize(T state);
+
+    void encode(T state, ByteBuffer buffer);
+
+    T decode(ByteBuffer buffer);
+}
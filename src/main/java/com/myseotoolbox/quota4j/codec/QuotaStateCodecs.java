@@ -0,0 +1,87 @@
+package com.myseotoolbox.quota4j.codec;
+
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.quotamanager.gcra.GcraQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.gcra.GcraStateCodec;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeStateCodec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes whole {@link QuotaState}s for persistence adapters, using the codec registered for the state's
+ * quota manager class name and falling back to Java serialization when there is none.
+ * <p>
+ * Layout: {@code ownerId | quotaId | quotaManagerClassName | version (8) | codec flag (1) | state},
+ * strings being a 2 bytes length followed by UTF-8.
+ */
+public class QuotaStateCodecs {
+    private static final byte REGISTERED_CODEC = 0;
+    private static final byte JAVA_SERIALIZATION = 1;
+    private static final QuotaStateCodec<Object> FALLBACK = new JavaSerializationCodec();
+
+    private final Map<String, QuotaStateCodec<Object>> codecs = new ConcurrentHashMap<>();
+
+    /**
+     * Codecs for the quota managers shipped with quota4j
+     */
+    public static QuotaStateCodecs defaults() {
+        QuotaStateCodecs codecs = new QuotaStateCodecs();
+        codecs.register(QuantityOverTimeQuotaManager.class.getName(), new QuantityOverTimeStateCodec());
+        codecs.register(GcraQuotaManager.class.getName(), new GcraStateCodec());
+        return codecs;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void register(String quotaManagerClassName, QuotaStateCodec<?> codec) {
+        codecs.put(quotaManagerClassName, (QuotaStateCodec<Object>) codec);
+    }
+
+    public byte[] encode(QuotaState quotaState) {
+        byte[] ownerId = quotaState.id().ownerId().getBytes(StandardCharsets.UTF_8);
+        byte[] quotaId = quotaState.id().quotaId().getBytes(StandardCharsets.UTF_8);
+        byte[] className = quotaState.quotaManagerClassName().getBytes(StandardCharsets.UTF_8);
+        QuotaStateCodec<Object> codec = codecs.get(quotaState.quotaManagerClassName());
+        byte[] serialized = codec == null ? JavaSerializationCodec.serialize(quotaState.currentState()) : null;
+        int stateSize = codec != null ? codec.encodedSize(quotaState.currentState()) : Integer.BYTES + serialized.length;
+        int size = 3 * Short.BYTES + ownerId.length + quotaId.length + className.length + Long.BYTES + 1 + stateSize;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        putString(buffer, ownerId);
+        putString(buffer, quotaId);
+        putString(buffer, className);
+        buffer.putLong(quotaState.version());
+        buffer.put(codec != null ? REGISTERED_CODEC : JAVA_SERIALIZATION);
+        if (codec != null) codec.encode(quotaState.currentState(), buffer);
+        else JavaSerializationCodec.write(serialized, buffer);
+        return buffer.array();
+    }
+
+    public QuotaState decode(byte[] bytes) {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    public QuotaState decode(ByteBuffer buffer) {
+        QuotaStateId id = QuotaStateId.create(getString(buffer), getString(buffer));
+        String className = getString(buffer);
+        long version = buffer.getLong();
+        QuotaStateCodec<Object> codec = buffer.get() == REGISTERED_CODEC ? codecs.get(className) : FALLBACK;
+        if (codec == null) throw new IllegalStateException("No codec registered for " + className);
+        return new QuotaState(id, className, codec.decode(buffer), version);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes.length > 0xFFFF) throw new IllegalArgumentException("String too long: " + bytes.length + " bytes");
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
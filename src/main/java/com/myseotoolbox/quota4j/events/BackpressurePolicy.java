@@ -0,0 +1,20 @@
+package com.myseotoolbox.quota4j.events;
+
+/**
+ * What {@link StateChangeDispatcher} does when the listener can't keep up and the buffer is full
+ */
+public enum BackpressurePolicy {
+    /**
+     * The new change is discarded
+     */
+    DROP,
+    /**
+     * Only the latest pending change of each {@link com.myseotoolbox.quota4j.model.QuotaStateId} is kept, so the buffer
+     * only fills up with more distinct states than its capacity. Changes are dropped past that.
+     */
+    COALESCE,
+    /**
+     * The thread saving the state waits for room in the buffer
+     */
+    BLOCK
+}
@@ -0,0 +1,67 @@
+package com.myseotoolbox.quota4j.events;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer. Each slot has a sequence number telling whether
+ * it's free for the producer claiming that position or ready for the consumer, so neither side ever takes a lock.
+ */
+final class MpscRingBuffer<E> {
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    MpscRingBuffer(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Returns false if the buffer is full
+     */
+    boolean offer(E element) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.getAcquire(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.setPlain(index, element);
+                    sequences.setRelease(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Only called by the consumer thread. Returns null if there is nothing ready.
+     */
+    E poll() {
+        long position = head;
+        int index = (int) position & mask;
+        if (sequences.getAcquire(index) != position + 1) return null;
+        E element = elements.getPlain(index);
+        elements.setPlain(index, null);
+        sequences.setRelease(index, position + mask + 1);
+        head = position + 1;
+        return element;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+}
@@ -0,0 +1,145 @@
+package com.myseotoolbox.quota4j.events;
+
+import com.myseotoolbox.quota4j.metrics.QuotaMetrics;
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.persistence.QuotaManagerStateChangeListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers state changes to a {@link QuotaManagerStateChangeListener} in batches, from a background thread.
+ * Publishing only adds the change to a bounded lock-free buffer, so a slow listener never adds latency to acquires:
+ * when the buffer is full the {@link BackpressurePolicy} applies. Drops and delivery lag are reported to {@link QuotaMetrics}.
+ * <p>
+ * Changes published after {@link #close()} are dropped, the state they come from is already saved.
+ */
+public class StateChangeDispatcher implements StateChangeFeed, AutoCloseable {
+    private final QuotaManagerStateChangeListener listener;
+    private final StateChangeDispatcherOptions options;
+    private final QuotaMetrics metrics;
+    private final MpscRingBuffer<Object> buffer;
+    private final ConcurrentHashMap<QuotaStateId, StateChange> pending = new ConcurrentHashMap<>();
+    private final Thread consumer;
+    private final AtomicInteger publishing = new AtomicInteger();
+    private volatile boolean closed;
+
+    public StateChangeDispatcher(QuotaManagerStateChangeListener listener, StateChangeDispatcherOptions options) {
+        this(listener, options, QuotaMetrics.NOOP);
+    }
+
+    public StateChangeDispatcher(QuotaManagerStateChangeListener listener, StateChangeDispatcherOptions options, QuotaMetrics metrics) {
+        this.listener = listener;
+        this.options = options;
+        this.metrics = metrics;
+        this.buffer = new MpscRingBuffer<>(options.capacity());
+        this.consumer = new Thread(this::consume, "quota4j-state-changes");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @Override
+    public void publish(QuotaState quotaState) {
+        // counted before checking closed, so that the consumer waits for this change before its last drain
+        publishing.incrementAndGet();
+        try {
+            if (closed) {
+                metrics.stateChangesDropped(1);
+                return;
+            }
+            StateChange change = new StateChange(quotaState, System.nanoTime());
+            switch (options.policy()) {
+                case DROP -> {
+                    if (!buffer.offer(change)) metrics.stateChangesDropped(1);
+                }
+                case COALESCE -> publishCoalesced(change);
+                case BLOCK -> {
+                    while (!buffer.offer(change)) {
+                        LockSupport.parkNanos(options.idleWait().toNanos());
+                    }
+                }
+            }
+        } finally {
+            publishing.decrementAndGet();
+        }
+    }
+
+    /**
+     * Only the id goes in the buffer, the first time a state changes since it was last delivered: the consumer then picks
+     * the latest change from the pending map.
+     */
+    private void publishCoalesced(StateChange change) {
+        QuotaStateId quotaStateId = change.state().id();
+        if (pending.put(quotaStateId, change) != null) return;
+        if (!buffer.offer(quotaStateId)) {
+            pending.remove(quotaStateId);
+            metrics.stateChangesDropped(1);
+        }
+    }
+
+    public int pendingCount() {
+        return buffer.size();
+    }
+
+    /**
+     * Stops accepting changes and waits for the pending ones to be delivered
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void consume() {
+        List<StateChange> batch = new ArrayList<>(options.maxBatchSize());
+        while (true) {
+            boolean wasClosed = closed && publishing.get() == 0;
+            drainTo(batch);
+            if (!batch.isEmpty()) {
+                deliver(batch);
+                batch.clear();
+            } else if (wasClosed) {
+                return;
+            } else {
+                LockSupport.parkNanos(options.idleWait().toNanos());
+            }
+        }
+    }
+
+    private void drainTo(List<StateChange> batch) {
+        while (batch.size() < options.maxBatchSize()) {
+            Object element = buffer.poll();
+            if (element == null) return;
+            StateChange change = element instanceof QuotaStateId quotaStateId ? pending.remove(quotaStateId) : (StateChange) element;
+            if (change != null) batch.add(change);
+        }
+    }
+
+    private void deliver(List<StateChange> batch) {
+        long oldest = batch.get(0).publishedAtNanos();
+        List<QuotaState> states = new ArrayList<>(batch.size());
+        for (StateChange change : batch) {
+            states.add(change.state());
+            oldest = Math.min(oldest, change.publishedAtNanos());
+        }
+        metrics.stateChangesDelivered(states.size(), System.nanoTime() - oldest);
+        try {
+            listener.statesChanged(states);
+        } catch (RuntimeException e) {
+            // a failing listener must not stop the feed, the batch is lost
+            metrics.stateChangesDropped(states.size());
+        }
+    }
+
+    private record StateChange(QuotaState state, long publishedAtNanos) {
+    }
+}
@@ -0,0 +1,32 @@
+package com.myseotoolbox.quota4j.events;
+
+import java.time.Duration;
+
+/**
+ * @param capacity     max number of pending changes, rounded up to a power of two
+ * @param maxBatchSize max number of changes delivered to the listener at once
+ * @param policy       what to do when the buffer is full
+ * @param idleWait     how long the consumer sleeps when there is nothing to deliver
+ */
+public record StateChangeDispatcherOptions(int capacity, int maxBatchSize, BackpressurePolicy policy, Duration idleWait) {
+
+    public static StateChangeDispatcherOptions defaults() {
+        return new StateChangeDispatcherOptions(16_384, 512, BackpressurePolicy.DROP, Duration.ofMillis(1));
+    }
+
+    public StateChangeDispatcherOptions withCapacity(int capacity) {
+        return new StateChangeDispatcherOptions(capacity, maxBatchSize, policy, idleWait);
+    }
+
+    public StateChangeDispatcherOptions withMaxBatchSize(int maxBatchSize) {
+        return new StateChangeDispatcherOptions(capacity, maxBatchSize, policy, idleWait);
+    }
+
+    public StateChangeDispatcherOptions withPolicy(BackpressurePolicy policy) {
+        return new StateChangeDispatcherOptions(capacity, maxBatchSize, policy, idleWait);
+    }
+
+    public StateChangeDispatcherOptions withIdleWait(Duration idleWait) {
+        return new StateChangeDispatcherOptions(capacity, maxBatchSize, policy, idleWait);
+    }
+}
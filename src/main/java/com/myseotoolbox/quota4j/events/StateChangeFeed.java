@@ -0,0 +1,14 @@
+package com.myseotoolbox.quota4j.events;
+
+import com.myseotoolbox.quota4j.model.QuotaState;
+
+/**
+ * Receives every state saved by {@link com.myseotoolbox.quota4j.QuotaService}, on the thread that saved it.
+ * Implementations must return quickly, see {@link StateChangeDispatcher} to deliver them asynchronously.
+ */
+@FunctionalInterface
+public interface StateChangeFeed {
+    StateChangeFeed NOOP = quotaState -> { };
+
+    void publish(QuotaState quotaState);
+}
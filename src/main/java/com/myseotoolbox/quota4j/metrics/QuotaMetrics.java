@@ -0,0 +1,67 @@
+package com.myseotoolbox.quota4j.metrics;
+
+import java.util.function.IntSupplier;
+
+/**
+ * Hooks called by {@link com.myseotoolbox.quota4j.QuotaService} on the hot path. Implementations must be cheap and thread safe,
+ * every method defaults to doing nothing. See the quota4j-micrometer module for a Micrometer binding.
+ */
+public interface QuotaMetrics {
+    QuotaMetrics NOOP = new QuotaMetrics() { };
+
+    /**
+     * An acquire completed, including the time spent retrying conflicts
+     */
+    default void acquired(String quotaId, boolean granted, long latencyNanos) { }
+
+    /**
+     * An acquire was declined by the {@link com.myseotoolbox.quota4j.DenyCache}, without reading the state
+     */
+    default void declinedLocally(String quotaId) { }
+
+    /**
+     * A state was read through {@link com.myseotoolbox.quota4j.QuotaService#getQuotaState(String, String)}
+     */
+    default void stateQueried(String quotaId, long latencyNanos) { }
+
+    /**
+     * Reading the state changed it, i.e. time replenished the quota
+     */
+    default void refilled(String quotaId) { }
+
+    /**
+     * Latency of a single findById, or of a findAllById batch
+     */
+    default void stateLoaded(long latencyNanos) { }
+
+    /**
+     * Latency of a single compare and save, or of a batch
+     */
+    default void stateSaved(long latencyNanos) { }
+
+    /**
+     * Another node updated the state concurrently and the operation is about to be retried
+     */
+    default void conflict(String quotaId) { }
+
+    /**
+     * A background flush of {@link com.myseotoolbox.quota4j.persistence.cache.WriteBehindQuotaStatePersistence} failed,
+     * {@code dirtyStates} are still waiting to be written and will be retried
+     */
+    default void flushFailed(int dirtyStates, RuntimeException error) { }
+
+    /**
+     * State changes were discarded because the feed buffer was full or the listener failed
+     */
+    default void stateChangesDropped(int count) { }
+
+    /**
+     * A batch of state changes was handed to the listener, {@code lagNanos} after the oldest one was published
+     */
+    default void stateChangesDelivered(int count, long lagNanos) { }
+
+    /**
+     * Called once when the service is built, {@code size} reports how many quota managers are currently cached
+     */
+    default void bindQuotaManagersCacheSize(IntSupplier size) { }
+}
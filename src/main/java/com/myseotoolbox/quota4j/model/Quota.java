@@ -3,4 +3,19 @@ package com.myseotoolbox.quota4j.model;
 
 import java.io.Serializable;
 
-public record Quota(String id, String quotaManagerClassName, Object defaultState) implements Serializable { }
+/**
+ * @param defaultState  initial state of every owner of this quota. It's shared by all of them and by caches, so it must be immutable:
+ *                      quota managers always return a new state instead of changing the one they are given.
+ * @param parentQuotaId quota that is also debited by {@link com.myseotoolbox.quota4j.QuotaService#tryAcquireInHierarchy(String, String, long)},
+ *                      e.g. the organisation quota a user quota draws from. Null at the top of the hierarchy.
+ */
+public record Quota(String id, String quotaManagerClassName, Object defaultState, String parentQuotaId) implements Serializable {
+
+    public Quota(String id, String quotaManagerClassName, Object defaultState) {
+        this(id, quotaManagerClassName, defaultState, null);
+    }
+
+    public Quota withParentQuotaId(String parentQuotaId) {
+        return new Quota(id, quotaManagerClassName, defaultState, parentQuotaId);
+    }
+}
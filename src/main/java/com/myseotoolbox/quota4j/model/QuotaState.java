@@ -1,10 +1,26 @@
 package com.myseotoolbox.quota4j.model;
 
 import java.io.Serializable;
+import java.util.Objects;
 
-public record QuotaState(QuotaStateId id, String quotaManagerClassName, Object currentState) implements Serializable {
+/**
+ * @param version incremented on every save, used to detect concurrent updates. A state that was never saved has version 0
+ */
+public record QuotaState(QuotaStateId id, String quotaManagerClassName, Object currentState, long version) implements Serializable {
+
+    public QuotaState(QuotaStateId id, String quotaManagerClassName, Object currentState) {
+        this(id, quotaManagerClassName, currentState, 0);
+    }
 
     public QuotaState withUpdatedState(Object updatedState) {
-        return new QuotaState(id, quotaManagerClassName, updatedState);
+        return new QuotaState(id, quotaManagerClassName, updatedState, version);
+    }
+
+    public QuotaState withNextVersion() {
+        return new QuotaState(id, quotaManagerClassName, currentState, version + 1);
+    }
+
+    public boolean hasState(Object state) {
+        return Objects.equals(currentState, state);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,13 @@
+package com.myseotoolbox.quota4j.persistence;
+
+import com.myseotoolbox.quota4j.model.Quota;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non blocking version of {@link QuotaPersistence}
+ */
+public interface AsyncQuotaPersistence {
+    CompletableFuture<Optional<Quota>> findById(String id);
+}
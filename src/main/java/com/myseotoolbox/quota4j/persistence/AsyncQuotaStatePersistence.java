@@ -0,0 +1,19 @@
+package com.myseotoolbox.quota4j.persistence;
+
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non blocking version of {@link QuotaStatePersistence}
+ */
+public interface AsyncQuotaStatePersistence {
+    CompletableFuture<Optional<QuotaState>> findById(QuotaStateId quotaStateId);
+
+    /**
+     * Same contract as {@link QuotaStatePersistence#compareAndSave(long, QuotaState)}
+     */
+    CompletableFuture<Boolean> compareAndSave(long expectedVersion, QuotaState newState);
+}
@@ -0,0 +1,25 @@
+package com.myseotoolbox.quota4j.persistence;
+
+import com.myseotoolbox.quota4j.model.Quota;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs a blocking {@link QuotaPersistence} on the given executor, see {@link BlockingQuotaStatePersistenceAdapter}
+ */
+public class BlockingQuotaPersistenceAdapter implements AsyncQuotaPersistence {
+    private final QuotaPersistence delegate;
+    private final Executor executor;
+
+    public BlockingQuotaPersistenceAdapter(QuotaPersistence delegate, Executor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Optional<Quota>> findById(String id) {
+        return CompletableFuture.supplyAsync(() -> delegate.findById(id), executor);
+    }
+}
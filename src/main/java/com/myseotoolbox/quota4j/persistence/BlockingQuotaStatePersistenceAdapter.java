@@ -0,0 +1,33 @@
+package com.myseotoolbox.quota4j.persistence;
+
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs a blocking {@link QuotaStatePersistence} on the given executor.
+ * On Java 21+ {@code Executors.newVirtualThreadPerTaskExecutor()} lets thousands of calls wait on I/O without
+ * holding as many platform threads.
+ */
+public class BlockingQuotaStatePersistenceAdapter implements AsyncQuotaStatePersistence {
+    private final QuotaStatePersistence delegate;
+    private final Executor executor;
+
+    public BlockingQuotaStatePersistenceAdapter(QuotaStatePersistence delegate, Executor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Optional<QuotaState>> findById(QuotaStateId quotaStateId) {
+        return CompletableFuture.supplyAsync(() -> delegate.findById(quotaStateId), executor);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> compareAndSave(long expectedVersion, QuotaState newState) {
+        return CompletableFuture.supplyAsync(() -> delegate.compareAndSave(expectedVersion, newState), executor);
+    }
+}
@@ -0,0 +1,21 @@
+package com.myseotoolbox.quota4j.persistence;
+
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+
+/**
+ * Persistence that can list and delete states, so idle ones can be swept by
+ * {@link com.myseotoolbox.quota4j.QuotaService#sweepIdleStates(int)}
+ */
+public interface ExpirableQuotaStatePersistence extends QuotaStatePersistence {
+
+    /**
+     * Returns up to {@code limit} states following the cursor. Pass a null cursor to start from the beginning,
+     * a null {@link QuotaStatePage#nextCursor()} means the scan is complete. States changed during a scan may be skipped or returned twice.
+     */
+    QuotaStatePage scan(String cursor, int limit);
+
+    /**
+     * Deletes the state only if nobody updated it since it was read. Returns false otherwise.
+     */
+    boolean deleteIfVersion(QuotaStateId quotaStateId, long expectedVersion);
+}
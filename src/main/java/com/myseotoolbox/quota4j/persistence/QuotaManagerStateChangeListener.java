@@ -1,5 +1,17 @@
 package com.myseotoolbox.quota4j.persistence;
 
+import com.myseotoolbox.quota4j.model.QuotaState;
+
+import java.util.List;
+
 public interface QuotaManagerStateChangeListener {
     void stateChanged(Object state);
+
+    /**
+     * Called by {@link com.myseotoolbox.quota4j.events.StateChangeDispatcher} with a batch of saved states, oldest first.
+     * Override it to handle the whole batch at once.
+     */
+    default void statesChanged(List<QuotaState> states) {
+        states.forEach(quotaState -> stateChanged(quotaState.currentState()));
+    }
 }
@@ -2,10 +2,27 @@ package com.myseotoolbox.quota4j.persistence;
 
 import com.myseotoolbox.quota4j.model.Quota;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface QuotaPersistence {
     Quota save(Quota quota);
 
     Optional<Quota> findById(String id);
+
+    /**
+     * Returns the quotas that exist among the requested ones, in no particular order.
+     * Override it to load them with a single round trip to the store.
+     */
+    default List<Quota> findAllById(Collection<String> ids) {
+        return ids.stream().map(this::findById).flatMap(Optional::stream).toList();
+    }
+
+    /**
+     * Override it to write all the quotas with a single round trip to the store.
+     */
+    default List<Quota> saveAll(Collection<Quota> quotas) {
+        return quotas.stream().map(this::save).toList();
+    }
 }
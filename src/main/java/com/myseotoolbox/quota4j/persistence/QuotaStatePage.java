@@ -0,0 +1,11 @@
+package com.myseotoolbox.quota4j.persistence;
+
+import com.myseotoolbox.quota4j.model.QuotaState;
+
+import java.util.List;
+
+/**
+ * @param nextCursor where the next page starts, null when there are no more states
+ */
+public record QuotaStatePage(List<QuotaState> states, String nextCursor) {
+}
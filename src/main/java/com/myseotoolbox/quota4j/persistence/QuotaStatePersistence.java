@@ -3,10 +3,56 @@ package com.myseotoolbox.quota4j.persistence;
 import com.myseotoolbox.quota4j.model.QuotaState;
 import com.myseotoolbox.quota4j.model.QuotaStateId;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 public interface QuotaStatePersistence {
     Optional<QuotaState> findById(QuotaStateId quotaStateId);
 
     QuotaState save(QuotaState quotaState);
+
+    /**
+     * Returns the states that exist among the requested ones, in no particular order.
+     * Override it to load them with a single round trip to the store.
+     */
+    default List<QuotaState> findAllById(Collection<QuotaStateId> quotaStateIds) {
+        return quotaStateIds.stream().map(this::findById).flatMap(Optional::stream).toList();
+    }
+
+    /**
+     * Override it to write all the states with a single round trip to the store.
+     */
+    default List<QuotaState> saveAll(Collection<QuotaState> quotaStates) {
+        return quotaStates.stream().map(this::save).toList();
+    }
+
+    /**
+     * Saves the state only if the stored one still has the expected version (0 if it was never saved).
+     * Returns false, without writing anything, if it was updated by somebody else in the meantime.
+     * <p>
+     * The default implementation reads and then writes: it's only safe when this JVM is the only writer.
+     * Stores shared by several nodes must override it with a conditional update (e.g. {@code UPDATE ... WHERE version = ?}).
+     */
+    default boolean compareAndSave(long expectedVersion, QuotaState newState) {
+        long currentVersion = findById(newState.id()).map(QuotaState::version).orElse(0L);
+        if (currentVersion != expectedVersion) return false;
+        save(newState);
+        return true;
+    }
+
+    /**
+     * All or nothing version of {@link #compareAndSave(long, QuotaState)}, where each new state expects the stored one
+     * to be at {@code version() - 1}. Stores shared by several nodes must override it with a transaction.
+     */
+    default boolean compareAndSaveAll(Collection<QuotaState> newStates) {
+        Map<QuotaStateId, Long> currentVersions = findAllById(newStates.stream().map(QuotaState::id).toList()).stream()
+                .collect(Collectors.toMap(QuotaState::id, QuotaState::version));
+        boolean unchanged = newStates.stream().allMatch(newState -> currentVersions.getOrDefault(newState.id(), 0L) == newState.version() - 1);
+        if (!unchanged) return false;
+        saveAll(newStates);
+        return true;
+    }
 }
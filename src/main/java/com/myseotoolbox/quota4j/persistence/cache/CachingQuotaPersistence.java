@@ -0,0 +1,159 @@
+package com.myseotoolbox.quota4j.persistence.cache;
+
+import com.myseotoolbox.quota4j.model.Quota;
+import com.myseotoolbox.quota4j.persistence.QuotaPersistence;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of quota definitions. Entries expire after the ttl, or explicitly with {@link #invalidate(String)}
+ * when a quota is changed by another node. Saves through this instance update the cache directly.
+ * <p>
+ * Hits are served without locking. Concurrent misses on the same quota id are loaded once, the other callers wait for
+ * that load. A load still running when its quota is invalidated returns what it read to its callers, but doesn't cache it.
+ * Cached quotas are shared by every caller, so {@link Quota#defaultState()} must be immutable.
+ */
+public class CachingQuotaPersistence implements QuotaPersistence {
+    private final QuotaPersistence delegate;
+    private final Duration ttl;
+    private final Clock clock;
+    private final ConcurrentHashMap<String, CachedQuota> cache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Optional<Quota>>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public CachingQuotaPersistence(QuotaPersistence delegate, Duration ttl) {
+        this(delegate, ttl, Clock.systemUTC());
+    }
+
+    public CachingQuotaPersistence(QuotaPersistence delegate, Duration ttl, Clock clock) {
+        this.delegate = delegate;
+        this.ttl = ttl;
+        this.clock = clock;
+    }
+
+    @Override
+    public Quota save(Quota quota) {
+        Quota saved = delegate.save(quota);
+        cache(saved);
+        return saved;
+    }
+
+    @Override
+    public List<Quota> saveAll(Collection<Quota> quotas) {
+        List<Quota> saved = delegate.saveAll(quotas);
+        saved.forEach(this::cache);
+        return saved;
+    }
+
+    @Override
+    public Optional<Quota> findById(String id) {
+        CachedQuota cached = cache.get(id);
+        if (cached != null && !isExpired(cached)) return Optional.of(cached.quota());
+        CompletableFuture<Optional<Quota>> load = new CompletableFuture<>();
+        CompletableFuture<Optional<Quota>> inFlight = loading.putIfAbsent(id, load);
+        return inFlight != null ? await(inFlight) : load(id, cached, load);
+    }
+
+    @Override
+    public List<Quota> findAllById(Collection<String> ids) {
+        List<Quota> found = new ArrayList<>(ids.size());
+        List<String> toLoad = new ArrayList<>();
+        for (String id : ids) {
+            CachedQuota cached = cache.get(id);
+            if (cached != null && !isExpired(cached)) found.add(cached.quota());
+            else toLoad.add(id);
+        }
+        if (!toLoad.isEmpty()) {
+            long seenInvalidations = invalidations.get();
+            List<Quota> loaded = delegate.findAllById(toLoad);
+            loaded.forEach(quota -> cacheLoaded(quota, seenInvalidations));
+            found.addAll(loaded);
+        }
+        return found;
+    }
+
+    /**
+     * Loads the given quotas in one batch, so the first acquires don't pay for it
+     */
+    public void preload(Collection<String> ids) {
+        long seenInvalidations = invalidations.get();
+        delegate.findAllById(ids).forEach(quota -> cacheLoaded(quota, seenInvalidations));
+    }
+
+    /**
+     * Later reads go to the delegate, loads already running don't cache what they read
+     */
+    public void invalidate(String quotaId) {
+        invalidations.incrementAndGet();
+        loading.remove(quotaId);
+        cache.remove(quotaId);
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        loading.clear();
+        cache.clear();
+    }
+
+    /**
+     * Loads outside of any map lock, so that hits on other quotas, or on this one from other threads, never wait for the delegate
+     */
+    private Optional<Quota> load(String id, CachedQuota expired, CompletableFuture<Optional<Quota>> load) {
+        long seenInvalidations = invalidations.get();
+        try {
+            Optional<Quota> quota = delegate.findById(id);
+            if (quota.isPresent()) cacheLoaded(quota.get(), seenInvalidations);
+            else if (expired != null) cache.remove(id, expired);
+            load.complete(quota);
+            return quota;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(id, load);
+        }
+    }
+
+    private static Optional<Quota> await(CompletableFuture<Optional<Quota>> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    private void cache(Quota quota) {
+        cache.put(quota.id(), cached(quota));
+    }
+
+    /**
+     * Caches first and checks afterwards: an invalidation counted after the check removes the entry itself,
+     * one counted before is undone here. Any invalidation meanwhile drops the entry, at worst costing one more load.
+     */
+    private void cacheLoaded(Quota quota, long seenInvalidations) {
+        CachedQuota cached = cached(quota);
+        cache.put(quota.id(), cached);
+        if (invalidations.get() != seenInvalidations) cache.remove(quota.id(), cached);
+    }
+
+    private CachedQuota cached(Quota quota) {
+        return new CachedQuota(quota, clock.instant());
+    }
+
+    private boolean isExpired(CachedQuota cached) {
+        return !clock.instant().isBefore(cached.cachedAt().plus(ttl));
+    }
+
+    private record CachedQuota(Quota quota, Instant cachedAt) { }
+}
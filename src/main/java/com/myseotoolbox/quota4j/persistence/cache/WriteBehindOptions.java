@@ -0,0 +1,39 @@
+package com.myseotoolbox.quota4j.persistence.cache;
+
+import com.myseotoolbox.quota4j.metrics.QuotaMetrics;
+
+import java.time.Duration;
+
+/**
+ * @param maxSize        max number of states kept in memory for reads. Dirty states are never dropped before being flushed.
+ * @param ttl            how long a cached state is trusted before being read again from the delegate
+ * @param flushInterval  durability window: dirty states are written to the delegate at least this often
+ * @param dirtyThreshold number of dirty states that triggers a flush before the interval expires
+ * @param metrics        notified of failed background flushes, {@link QuotaMetrics#NOOP} by default
+ */
+public record WriteBehindOptions(int maxSize, Duration ttl, Duration flushInterval, int dirtyThreshold, QuotaMetrics metrics) {
+
+    public static WriteBehindOptions defaults() {
+        return new WriteBehindOptions(100_000, Duration.ofMinutes(5), Duration.ofSeconds(1), 1_000, QuotaMetrics.NOOP);
+    }
+
+    public WriteBehindOptions withMaxSize(int maxSize) {
+        return new WriteBehindOptions(maxSize, ttl, flushInterval, dirtyThreshold, metrics);
+    }
+
+    public WriteBehindOptions withTtl(Duration ttl) {
+        return new WriteBehindOptions(maxSize, ttl, flushInterval, dirtyThreshold, metrics);
+    }
+
+    public WriteBehindOptions withFlushInterval(Duration flushInterval) {
+        return new WriteBehindOptions(maxSize, ttl, flushInterval, dirtyThreshold, metrics);
+    }
+
+    public WriteBehindOptions withDirtyThreshold(int dirtyThreshold) {
+        return new WriteBehindOptions(maxSize, ttl, flushInterval, dirtyThreshold, metrics);
+    }
+
+    public WriteBehindOptions withMetrics(QuotaMetrics metrics) {
+        return new WriteBehindOptions(maxSize, ttl, flushInterval, dirtyThreshold, metrics);
+    }
+}
@@ -0,0 +1,310 @@
+package com.myseotoolbox.quota4j.persistence.cache;
+
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.persistence.ExpirableQuotaStatePersistence;
+import com.myseotoolbox.quota4j.persistence.QuotaStatePage;
+import com.myseotoolbox.quota4j.persistence.QuotaStatePersistence;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps hot states in memory and writes them to the delegate in the background.
+ * <p>
+ * Saves only mark the state as dirty: a crash loses at most what was saved during the last
+ * {@link WriteBehindOptions#flushInterval()}, or since the delegate started failing, which is reported through
+ * {@link com.myseotoolbox.quota4j.metrics.QuotaMetrics#flushFailed(int, RuntimeException)}. This cache assumes it's the only writer of the delegate:
+ * version checks are done against the in memory states, so don't share the underlying store between nodes when using it.
+ * Scanning and deleting states is supported when the delegate is an {@link ExpirableQuotaStatePersistence}.
+ * Once closed, saves fail with {@link IllegalStateException}: everything saved before is flushed by {@link #close()}.
+ */
+public class WriteBehindQuotaStatePersistence implements ExpirableQuotaStatePersistence, AutoCloseable {
+    private final QuotaStatePersistence delegate;
+    private final WriteBehindOptions options;
+    private final Clock clock;
+    private final LinkedHashMap<QuotaStateId, CachedState> cache;
+    private final LinkedHashMap<QuotaStateId, QuotaState> dirty = new LinkedHashMap<>();
+    private final Object flushLock = new Object();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler;
+    private long removals;
+    private boolean closed;
+
+    public WriteBehindQuotaStatePersistence(QuotaStatePersistence delegate, WriteBehindOptions options) {
+        this(delegate, options, Clock.systemUTC());
+    }
+
+    public WriteBehindQuotaStatePersistence(QuotaStatePersistence delegate, WriteBehindOptions options, Clock clock) {
+        this.delegate = delegate;
+        this.options = options;
+        this.clock = clock;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<QuotaStateId, CachedState> eldest) {
+                boolean evict = size() > options.maxSize();
+                if (evict) removals++;
+                return evict;
+            }
+        };
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "quota4j-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = options.flushInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Optional<QuotaState> findById(QuotaStateId quotaStateId) {
+        CachedState seen;
+        long seenRemovals;
+        synchronized (this) {
+            QuotaState pending = dirty.get(quotaStateId);
+            if (pending != null) return Optional.of(pending);
+            seen = cache.get(quotaStateId);
+            if (seen != null && !isExpired(seen)) return Optional.of(seen.state());
+            seenRemovals = removals;
+        }
+        Optional<QuotaState> loaded = delegate.findById(quotaStateId);
+        synchronized (this) {
+            if (!loaded.isPresent()) return loaded;
+            return Optional.of(cacheLoaded(loaded.get(), seen, seenRemovals));
+        }
+    }
+
+    @Override
+    public List<QuotaState> findAllById(Collection<QuotaStateId> quotaStateIds) {
+        List<QuotaState> found = new ArrayList<>(quotaStateIds.size());
+        List<QuotaStateId> toLoad = new ArrayList<>();
+        Map<QuotaStateId, CachedState> seen = new HashMap<>();
+        long seenRemovals;
+        synchronized (this) {
+            for (QuotaStateId quotaStateId : quotaStateIds) {
+                QuotaState pending = dirty.get(quotaStateId);
+                CachedState cached = cache.get(quotaStateId);
+                if (pending != null) {
+                    found.add(pending);
+                } else if (cached != null && !isExpired(cached)) {
+                    found.add(cached.state());
+                } else {
+                    toLoad.add(quotaStateId);
+                    if (cached != null) seen.put(quotaStateId, cached);
+                }
+            }
+            seenRemovals = removals;
+        }
+        if (toLoad.isEmpty()) return found;
+        List<QuotaState> loaded = delegate.findAllById(toLoad);
+        synchronized (this) {
+            for (QuotaState quotaState : loaded) {
+                found.add(cacheLoaded(quotaState, seen.get(quotaState.id()), seenRemovals));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public List<QuotaState> saveAll(Collection<QuotaState> quotaStates) {
+        int dirtyCount;
+        synchronized (this) {
+            ensureOpen();
+            for (QuotaState quotaState : quotaStates) {
+                cache(quotaState);
+                dirty.put(quotaState.id(), quotaState);
+            }
+            dirtyCount = dirty.size();
+        }
+        requestFlushIfNeeded(dirtyCount);
+        return List.copyOf(quotaStates);
+    }
+
+    @Override
+    public QuotaState save(QuotaState quotaState) {
+        int dirtyCount;
+        synchronized (this) {
+            ensureOpen();
+            cache(quotaState);
+            dirty.put(quotaState.id(), quotaState);
+            dirtyCount = dirty.size();
+        }
+        requestFlushIfNeeded(dirtyCount);
+        return quotaState;
+    }
+
+    @Override
+    public boolean compareAndSave(long expectedVersion, QuotaState newState) {
+        Optional<QuotaState> loaded = findById(newState.id());
+        int dirtyCount;
+        synchronized (this) {
+            ensureOpen();
+            if (currentVersion(newState.id(), loaded) != expectedVersion) return false;
+            cache(newState);
+            dirty.put(newState.id(), newState);
+            dirtyCount = dirty.size();
+        }
+        requestFlushIfNeeded(dirtyCount);
+        return true;
+    }
+
+    @Override
+    public boolean compareAndSaveAll(Collection<QuotaState> newStates) {
+        Map<QuotaStateId, QuotaState> loaded = new HashMap<>();
+        findAllById(newStates.stream().map(QuotaState::id).toList()).forEach(quotaState -> loaded.put(quotaState.id(), quotaState));
+        int dirtyCount;
+        synchronized (this) {
+            ensureOpen();
+            for (QuotaState newState : newStates) {
+                if (currentVersion(newState.id(), Optional.ofNullable(loaded.get(newState.id()))) != newState.version() - 1) return false;
+            }
+            for (QuotaState newState : newStates) {
+                cache(newState);
+                dirty.put(newState.id(), newState);
+            }
+            dirtyCount = dirty.size();
+        }
+        requestFlushIfNeeded(dirtyCount);
+        return true;
+    }
+
+    /**
+     * Flushes first, so the delegate has the latest version of every state
+     */
+    @Override
+    public QuotaStatePage scan(String cursor, int limit) {
+        ExpirableQuotaStatePersistence expirable = expirableDelegate();
+        flush();
+        return expirable.scan(cursor, limit);
+    }
+
+    @Override
+    public boolean deleteIfVersion(QuotaStateId quotaStateId, long expectedVersion) {
+        ExpirableQuotaStatePersistence expirable = expirableDelegate();
+        Optional<QuotaState> loaded = findById(quotaStateId);
+        synchronized (flushLock) {
+            QuotaState pending;
+            synchronized (this) {
+                if (currentVersion(quotaStateId, loaded) != expectedVersion) return false;
+                pending = dirty.remove(quotaStateId);
+                if (cache.remove(quotaStateId) != null) removals++;
+            }
+            if (pending != null) delegate.save(pending);
+            return expirable.deleteIfVersion(quotaStateId, expectedVersion);
+        }
+    }
+
+    /**
+     * Writes every dirty state to the delegate with a single {@link QuotaStatePersistence#saveAll(Collection)}.
+     * Several saves of the same state since the last flush result in a single write.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            flushRequested.set(false);
+            List<QuotaState> batch;
+            synchronized (this) {
+                batch = new ArrayList<>(dirty.values());
+            }
+            if (batch.isEmpty()) return;
+            delegate.saveAll(batch);
+            synchronized (this) {
+                batch.forEach(quotaState -> dirty.remove(quotaState.id(), quotaState));
+            }
+        }
+    }
+
+    public synchronized int dirtyCount() {
+        return dirty.size();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(options.flushInterval().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            flush();
+        }
+    }
+
+    private long currentVersion(QuotaStateId quotaStateId, Optional<QuotaState> loaded) {
+        QuotaState pending = dirty.get(quotaStateId);
+        if (pending != null) return pending.version();
+        CachedState cached = cache.get(quotaStateId);
+        if (cached != null) return cached.state().version();
+        return loaded.map(QuotaState::version).orElse(0L);
+    }
+
+    private ExpirableQuotaStatePersistence expirableDelegate() {
+        if (delegate instanceof ExpirableQuotaStatePersistence expirable) return expirable;
+        throw new UnsupportedOperationException(delegate.getClass().getName() + " does not support deleting states");
+    }
+
+    private void requestFlushIfNeeded(int dirtyCount) {
+        if (dirtyCount >= options.dirtyThreshold() && flushRequested.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                // closing, the final flush writes the state
+            }
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) throw new IllegalStateException("Write-behind persistence is closed");
+    }
+
+    /**
+     * Caches a state read from the delegate only if the entry is still the one seen before reading it: otherwise a save,
+     * possibly already flushed, or a delete happened meanwhile and the entry is more recent than what was read.
+     * A missing entry could also have been saved and then evicted, the removals count tells.
+     */
+    private QuotaState cacheLoaded(QuotaState loaded, CachedState seen, long seenRemovals) {
+        QuotaState pending = dirty.get(loaded.id());
+        if (pending != null) return pending;
+        CachedState current = cache.get(loaded.id());
+        if (current != seen) return current != null ? current.state() : loaded;
+        if (seen == null && removals != seenRemovals) return loaded;
+        cache(loaded);
+        return loaded;
+    }
+
+    /**
+     * Background flushes can't throw to anyone: failures are reported to the metrics, the states stay dirty and are retried on the next flush
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            options.metrics().flushFailed(dirtyCount(), e);
+        }
+    }
+
+    private void cache(QuotaState quotaState) {
+        cache.put(quotaState.id(), new CachedState(quotaState, clock.instant()));
+    }
+
+    private boolean isExpired(CachedState cached) {
+        return !clock.instant().isBefore(cached.cachedAt().plus(options.ttl()));
+    }
+
+    private record CachedState(QuotaState state, Instant cachedAt) {
+    }
+}
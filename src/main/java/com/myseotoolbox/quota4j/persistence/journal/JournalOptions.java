@@ -0,0 +1,21 @@
+package com.myseotoolbox.quota4j.persistence.journal;
+
+/**
+ * @param syncOnWrite         writes return only once they are on the storage device. Concurrent writes share the same fsync.
+ *                            When false, durability is left to the OS until {@link JournalQuotaStatePersistence#close()}.
+ * @param compactionThreshold journal size in bytes after which it's compacted into a snapshot in the background
+ */
+public record JournalOptions(boolean syncOnWrite, long compactionThreshold) {
+
+    public static JournalOptions defaults() {
+        return new JournalOptions(true, 64L << 20);
+    }
+
+    public JournalOptions withSyncOnWrite(boolean syncOnWrite) {
+        return new JournalOptions(syncOnWrite, compactionThreshold);
+    }
+
+    public JournalOptions withCompactionThreshold(long compactionThreshold) {
+        return new JournalOptions(syncOnWrite, compactionThreshold);
+    }
+}
@@ -0,0 +1,467 @@
+package com.myseotoolbox.quota4j.persistence.journal;
+
+import com.myseotoolbox.quota4j.codec.QuotaStateCodecs;
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.persistence.ExpirableQuotaStatePersistence;
+import com.myseotoolbox.quota4j.persistence.QuotaStatePage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps all states in memory and makes them durable by appending every change to a journal, so that each write is
+ * a sequential append instead of an update in place. Reads never touch the disk.
+ * <p>
+ * Once the journal grows past {@link JournalOptions#compactionThreshold()}, writes move to a new journal file and the
+ * states are written to a snapshot in the background, replacing the previous one with an atomic move; older journal files
+ * are then deleted. On startup the snapshot is loaded and only the journal files written after it are replayed,
+ * a torn record at the end of the last one, left by a crash, is discarded. An invalid record anywhere else fails startup.
+ * <p>
+ * A change is applied in memory as soon as it is appended, before {@link JournalOptions#syncOnWrite()} forces it to disk,
+ * so that the version checks of the next writes see it without waiting for the sync. The writing call only returns once
+ * its change is forced, but readers may see it earlier: a crash in between loses a change they already observed, and
+ * a failed force leaves in memory a change the writer got an exception for.
+ * <p>
+ * Records are {@code length (4) | CRC32C (4) | type (1) | payload}, payloads being encoded with {@link QuotaStateCodecs}
+ * and deletes being written as tombstones. The snapshot is {@code magic (4) | format version (4) | generation (8)}
+ * followed by records. Only one instance must use a directory at a time.
+ */
+public class JournalQuotaStatePersistence implements ExpirableQuotaStatePersistence, AutoCloseable {
+    private static final int MAGIC = 0x51344a4a;
+    private static final int FORMAT_VERSION = 1;
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 1;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final String SNAPSHOT = "snapshot.q4j";
+    private static final Pattern JOURNAL = Pattern.compile("journal-(\\d+)\\.q4j");
+
+    private final Path directory;
+    private final JournalOptions options;
+    private final QuotaStateCodecs codecs;
+    private final NavigableMap<String, QuotaState> states = new ConcurrentSkipListMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Object syncMonitor = new Object();
+    private final Object compactionMonitor = new Object();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final ExecutorService compactor;
+
+    private FileChannel channel;
+    private long generation;
+    private volatile long journalSize;
+    private volatile long writtenSeq;
+    private long syncedSeq;
+
+    public JournalQuotaStatePersistence(Path directory, JournalOptions options) {
+        this(directory, options, QuotaStateCodecs.defaults());
+    }
+
+    public JournalQuotaStatePersistence(Path directory, JournalOptions options, QuotaStateCodecs codecs) {
+        this.directory = directory;
+        this.options = options;
+        this.codecs = codecs;
+        try {
+            Files.createDirectories(directory);
+            Files.deleteIfExists(directory.resolve(SNAPSHOT + ".tmp"));
+            long snapshotGeneration = loadSnapshot();
+            List<Long> journals = journalGenerations();
+            for (int i = 0; i < journals.size(); i++) {
+                long journal = journals.get(i);
+                if (journal < snapshotGeneration) Files.delete(journalOf(journal));
+                else replay(journal, i == journals.size() - 1);
+            }
+            this.generation = journals.isEmpty() ? snapshotGeneration : Math.max(snapshotGeneration, journals.get(journals.size() - 1));
+            this.channel = openJournal(generation);
+            this.journalSize = channel.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "quota4j-journal-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public Optional<QuotaState> findById(QuotaStateId quotaStateId) {
+        return Optional.ofNullable(states.get(keyOf(quotaStateId)));
+    }
+
+    @Override
+    public List<QuotaState> findAllById(Collection<QuotaStateId> quotaStateIds) {
+        List<QuotaState> found = new ArrayList<>(quotaStateIds.size());
+        for (QuotaStateId quotaStateId : quotaStateIds) {
+            QuotaState quotaState = states.get(keyOf(quotaStateId));
+            if (quotaState != null) found.add(quotaState);
+        }
+        return found;
+    }
+
+    @Override
+    public QuotaState save(QuotaState quotaState) {
+        saveAll(List.of(quotaState));
+        return quotaState;
+    }
+
+    @Override
+    public List<QuotaState> saveAll(Collection<QuotaState> quotaStates) {
+        ByteBuffer records = putRecords(quotaStates);
+        long seq;
+        lock.lock();
+        try {
+            seq = append(records);
+            quotaStates.forEach(quotaState -> states.put(keyOf(quotaState.id()), quotaState));
+        } finally {
+            lock.unlock();
+        }
+        afterAppend(seq);
+        return List.copyOf(quotaStates);
+    }
+
+    @Override
+    public boolean compareAndSave(long expectedVersion, QuotaState newState) {
+        ByteBuffer records = putRecords(List.of(newState));
+        long seq;
+        lock.lock();
+        try {
+            if (currentVersion(newState.id()) != expectedVersion) return false;
+            seq = append(records);
+            states.put(keyOf(newState.id()), newState);
+        } finally {
+            lock.unlock();
+        }
+        afterAppend(seq);
+        return true;
+    }
+
+    @Override
+    public boolean compareAndSaveAll(Collection<QuotaState> newStates) {
+        ByteBuffer records = putRecords(newStates);
+        long seq;
+        lock.lock();
+        try {
+            for (QuotaState newState : newStates) {
+                if (currentVersion(newState.id()) != newState.version() - 1) return false;
+            }
+            seq = append(records);
+            newStates.forEach(newState -> states.put(keyOf(newState.id()), newState));
+        } finally {
+            lock.unlock();
+        }
+        afterAppend(seq);
+        return true;
+    }
+
+    /**
+     * The cursor is the key of the last state returned, states are scanned in key order
+     */
+    @Override
+    public QuotaStatePage scan(String cursor, int limit) {
+        NavigableMap<String, QuotaState> remaining = cursor == null ? states : states.tailMap(cursor, false);
+        List<QuotaState> page = new ArrayList<>(limit);
+        String last = null;
+        for (Map.Entry<String, QuotaState> entry : remaining.entrySet()) {
+            if (page.size() == limit) return new QuotaStatePage(page, last);
+            page.add(entry.getValue());
+            last = entry.getKey();
+        }
+        return new QuotaStatePage(page, null);
+    }
+
+    @Override
+    public boolean deleteIfVersion(QuotaStateId quotaStateId, long expectedVersion) {
+        String key = keyOf(quotaStateId);
+        byte[] payload = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        putRecord(record, DELETE, payload);
+        record.flip();
+        long seq;
+        lock.lock();
+        try {
+            QuotaState current = states.get(key);
+            if (current == null || current.version() != expectedVersion) return false;
+            seq = append(record);
+            states.remove(key);
+        } finally {
+            lock.unlock();
+        }
+        afterAppend(seq);
+        return true;
+    }
+
+    /**
+     * Writes all states to a new snapshot and deletes the journal files it replaces. It normally runs in the background
+     * once the journal exceeds {@link JournalOptions#compactionThreshold()}.
+     */
+    public void compact() {
+        synchronized (compactionMonitor) {
+            List<QuotaState> snapshot;
+            long snapshotGeneration;
+            lock.lock();
+            try {
+                snapshot = new ArrayList<>(states.values());
+                snapshotGeneration = generation + 1;
+                // forced before the next journal exists, so that only the last one can end with a torn record
+                channel.force(false);
+                FileChannel next = openJournal(snapshotGeneration);
+                synchronized (syncMonitor) {
+                    channel.close();
+                    channel = next;
+                    syncedSeq = writtenSeq;
+                }
+                generation = snapshotGeneration;
+                journalSize = 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                lock.unlock();
+            }
+            try {
+                writeSnapshot(snapshot, snapshotGeneration);
+                for (long journal : journalGenerations()) {
+                    if (journal < snapshotGeneration) Files.delete(journalOf(journal));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            synchronized (syncMonitor) {
+                channel.force(false);
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must hold the lock. Returns the sequence number to wait for before the write can be considered durable.
+     */
+    private long append(ByteBuffer records) {
+        try {
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(journalSize);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw new UncheckedIOException(e);
+        }
+        journalSize += records.limit();
+        return ++writtenSeq;
+    }
+
+    /**
+     * Group commit: whoever gets the monitor first forces everything written so far, the writes waiting behind it
+     * usually find themselves already synced.
+     */
+    private void afterAppend(long seq) {
+        if (options.syncOnWrite()) {
+            synchronized (syncMonitor) {
+                if (syncedSeq < seq) {
+                    long target = writtenSeq;
+                    try {
+                        channel.force(false);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    syncedSeq = target;
+                }
+            }
+        }
+        if (journalSize > options.compactionThreshold() && compactionScheduled.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                try {
+                    compact();
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    private long currentVersion(QuotaStateId quotaStateId) {
+        QuotaState current = states.get(keyOf(quotaStateId));
+        return current == null ? 0 : current.version();
+    }
+
+    private ByteBuffer putRecords(Collection<QuotaState> quotaStates) {
+        List<byte[]> payloads = quotaStates.stream().map(codecs::encode).toList();
+        ByteBuffer records = ByteBuffer.allocate(payloads.stream().mapToInt(payload -> RECORD_HEADER_SIZE + payload.length).sum());
+        payloads.forEach(payload -> putRecord(records, PUT, payload));
+        return records.flip();
+    }
+
+    private static void putRecord(ByteBuffer buffer, byte type, byte[] payload) {
+        buffer.putInt(1 + payload.length);
+        buffer.putInt(crcOf(type, payload));
+        buffer.put(type);
+        buffer.put(payload);
+    }
+
+    private static int crcOf(byte type, byte[] payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(type);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private void apply(byte type, byte[] payload) {
+        if (type == PUT) {
+            QuotaState quotaState = codecs.decode(payload);
+            states.put(keyOf(quotaState.id()), quotaState);
+        } else {
+            states.remove(new String(payload, StandardCharsets.UTF_8));
+        }
+    }
+
+    private long loadSnapshot() throws IOException {
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (!Files.exists(snapshot)) return 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) throw new IllegalStateException("Not a quota state snapshot: " + snapshot);
+            long snapshotGeneration = in.readLong();
+            long valid = readRecords(in, 16, Files.size(snapshot), this::apply);
+            if (valid != Files.size(snapshot)) throw new IllegalStateException("Corrupted snapshot " + snapshot + " at byte " + valid);
+            return snapshotGeneration;
+        }
+    }
+
+    /**
+     * Applies the records of a journal file. The last one is truncated after its last valid record, earlier ones were
+     * forced before moving to the next, so an invalid record there is corruption and replaying past it would lose changes.
+     */
+    private void replay(long journal, boolean last) throws IOException {
+        Path file = journalOf(journal);
+        long size = Files.size(file);
+        long valid;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            valid = readRecords(in, 0, size, this::apply);
+        }
+        if (valid < size) {
+            if (!last) throw new IllegalStateException("Corrupted journal " + file + " at byte " + valid);
+            try (FileChannel truncated = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                truncated.truncate(valid);
+            }
+        }
+    }
+
+    /**
+     * Returns the offset following the last complete record with a matching checksum. A length going past the end of the
+     * file can only be garbage, it ends the valid data before a buffer that large is allocated.
+     */
+    private static long readRecords(DataInputStream in, long offset, long size, RecordConsumer consumer) throws IOException {
+        while (true) {
+            byte type;
+            byte[] payload;
+            try {
+                int length = in.readInt();
+                int crc = in.readInt();
+                if (length < 1 || length - 1 > size - offset - RECORD_HEADER_SIZE) return offset;
+                type = in.readByte();
+                payload = new byte[length - 1];
+                in.readFully(payload);
+                if (crc != crcOf(type, payload)) return offset;
+            } catch (EOFException e) {
+                return offset;
+            }
+            consumer.accept(type, payload);
+            offset += RECORD_HEADER_SIZE + payload.length;
+        }
+    }
+
+    private void writeSnapshot(List<QuotaState> snapshot, long snapshotGeneration) throws IOException {
+        Path tmp = directory.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel file = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream stream = Channels.newOutputStream(file);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(snapshotGeneration);
+            for (QuotaState quotaState : snapshot) {
+                byte[] payload = codecs.encode(quotaState);
+                out.writeInt(1 + payload.length);
+                out.writeInt(crcOf(PUT, payload));
+                out.writeByte(PUT);
+                out.write(payload);
+            }
+            out.flush();
+            file.force(true);
+        }
+        Files.move(tmp, directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private FileChannel openJournal(long journal) throws IOException {
+        return FileChannel.open(journalOf(journal), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private Path journalOf(long journal) {
+        return directory.resolve("journal-" + journal + ".q4j");
+    }
+
+    private List<Long> journalGenerations() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> JOURNAL.matcher(file.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .map(matcher -> Long.parseLong(matcher.group(1)))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static String keyOf(QuotaStateId quotaStateId) {
+        return quotaStateId.ownerId() + '\u0000' + quotaStateId.quotaId();
+    }
+
+    private interface RecordConsumer {
+        void accept(byte type, byte[] payload);
+    }
+}
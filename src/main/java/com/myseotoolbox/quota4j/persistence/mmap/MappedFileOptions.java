@@ -0,0 +1,28 @@
+package com.myseotoolbox.quota4j.persistence.mmap;
+
+import java.time.Duration;
+
+/**
+ * @param capacity      max number of states, rounded up to a power of two. Keep it well above the expected number of states,
+ *                      lookups slow down when the table gets full.
+ * @param recordSize    bytes reserved for each state, including its id
+ * @param forceInterval how often changes are forced to the storage device. {@link Duration#ZERO} leaves it to the OS.
+ */
+public record MappedFileOptions(int capacity, int recordSize, Duration forceInterval) {
+
+    public static MappedFileOptions defaults() {
+        return new MappedFileOptions(1 << 16, 1024, Duration.ofSeconds(1));
+    }
+
+    public MappedFileOptions withCapacity(int capacity) {
+        return new MappedFileOptions(capacity, recordSize, forceInterval);
+    }
+
+    public MappedFileOptions withRecordSize(int recordSize) {
+        return new MappedFileOptions(capacity, recordSize, forceInterval);
+    }
+
+    public MappedFileOptions withForceInterval(Duration forceInterval) {
+        return new MappedFileOptions(capacity, recordSize, forceInterval);
+    }
+}
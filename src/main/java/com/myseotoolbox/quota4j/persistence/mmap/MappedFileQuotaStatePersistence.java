@@ -0,0 +1,429 @@
+package com.myseotoolbox.quota4j.persistence.mmap;
+
+import com.myseotoolbox.quota4j.codec.QuotaStateCodecs;
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.persistence.ExpirableQuotaStatePersistence;
+import com.myseotoolbox.quota4j.persistence.QuotaStatePage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Stores states in fixed size records of a memory mapped file. The file itself is an open addressing hash table
+ * keyed by {@link QuotaStateId}: lookups and updates happen in place, without any index on the heap.
+ * <p>
+ * Layout: a header followed by {@code capacity} slots of {@code recordSize} bytes, each one being
+ * {@code status (1) | key hash (4) | CRC32C (4) | version (8) | key length (4) | payload length (4) | key | payload},
+ * the checksum covering everything after it. When inserting, the status byte is written last, so a new slot becomes visible
+ * only once complete. Updates overwrite the slot in place: if a crash tears one, its checksum no longer matches and
+ * the state is treated as missing, i.e. recreated from the quota default state, instead of decoding a corrupted record.
+ * <p>
+ * Lookups stop at the first empty slot. Deleting doesn't leave a tombstone: the following states of the cluster that can
+ * be stored earlier are moved back, so churn doesn't make misses probe the whole table. A move writes the copy before
+ * freeing the original, a crash in between leaves a duplicate further down the cluster that lookups never reach,
+ * and a {@code DELETED} slot, which probing goes past and inserts reuse. When opening the file, the copy farther from
+ * its home slot is dropped, before it can be moved back in front of the one kept, and deleted slots are cleaned up.
+ * Payloads are encoded with {@link QuotaStateCodecs}.
+ * For the single node it runs on, it's durable up to the last {@link MappedFileOptions#forceInterval()}.
+ */
+public class MappedFileQuotaStatePersistence implements ExpirableQuotaStatePersistence, AutoCloseable {
+    private static final int MAGIC = 0x51344a4d;
+    private static final int FORMAT_VERSION = 3;
+    private static final int HEADER_SIZE = 64;
+    private static final int HASH = 1;
+    private static final int CRC = 5;
+    private static final int VERSION = 9;
+    private static final int KEY_LENGTH = 17;
+    private static final int PAYLOAD_LENGTH = 21;
+    private static final int SLOT_HEADER_SIZE = 25;
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte DELETED = 2;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int recordSize;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService forceScheduler;
+    private final QuotaStateCodecs codecs;
+
+    public MappedFileQuotaStatePersistence(Path file, MappedFileOptions options) {
+        this(file, options, QuotaStateCodecs.defaults());
+    }
+
+    public MappedFileQuotaStatePersistence(Path file, MappedFileOptions options, QuotaStateCodecs codecs) {
+        this.codecs = codecs;
+        this.capacity = tableSizeFor(options.capacity());
+        this.recordSize = options.recordSize();
+        if (recordSize <= SLOT_HEADER_SIZE) throw new IllegalArgumentException("recordSize too small: " + recordSize);
+        long size = HEADER_SIZE + (long) capacity * recordSize;
+        if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("capacity * recordSize must be below 2GB");
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean existing = channel.size() > 0;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (existing) {
+                verifyHeader(file);
+                dropDuplicateKeys();
+                clearDeletedSlots();
+            } else {
+                writeHeader();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.forceScheduler = options.forceInterval().isZero() ? null : Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "quota4j-mapped-file-force");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (forceScheduler != null) {
+            long intervalMillis = options.forceInterval().toMillis();
+            forceScheduler.scheduleWithFixedDelay(this::force, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public Optional<QuotaState> findById(QuotaStateId quotaStateId) {
+        byte[] key = keyOf(quotaStateId);
+        lock.readLock().lock();
+        try {
+            int slot = findSlot(key, hashOf(key));
+            return slot < 0 || buffer.get(offsetOf(slot)) != USED ? Optional.empty() : Optional.ofNullable(readState(slot));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<QuotaState> findAllById(Collection<QuotaStateId> quotaStateIds) {
+        List<QuotaState> found = new ArrayList<>(quotaStateIds.size());
+        lock.readLock().lock();
+        try {
+            for (QuotaStateId quotaStateId : quotaStateIds) {
+                byte[] key = keyOf(quotaStateId);
+                int slot = findSlot(key, hashOf(key));
+                QuotaState quotaState = slot >= 0 && buffer.get(offsetOf(slot)) == USED ? readState(slot) : null;
+                if (quotaState != null) found.add(quotaState);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found;
+    }
+
+    @Override
+    public QuotaState save(QuotaState quotaState) {
+        byte[] payload = codecs.encode(quotaState);
+        lock.writeLock().lock();
+        try {
+            write(quotaState, payload);
+            return quotaState;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<QuotaState> saveAll(Collection<QuotaState> quotaStates) {
+        List<byte[]> payloads = quotaStates.stream().map(codecs::encode).toList();
+        lock.writeLock().lock();
+        try {
+            int i = 0;
+            for (QuotaState quotaState : quotaStates) {
+                write(quotaState, payloads.get(i++));
+            }
+            return List.copyOf(quotaStates);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean compareAndSave(long expectedVersion, QuotaState newState) {
+        byte[] payload = codecs.encode(newState);
+        lock.writeLock().lock();
+        try {
+            if (currentVersion(newState.id()) != expectedVersion) return false;
+            write(newState, payload);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean compareAndSaveAll(Collection<QuotaState> newStates) {
+        List<byte[]> payloads = newStates.stream().map(codecs::encode).toList();
+        lock.writeLock().lock();
+        try {
+            for (QuotaState newState : newStates) {
+                if (currentVersion(newState.id()) != newState.version() - 1) return false;
+            }
+            int i = 0;
+            for (QuotaState newState : newStates) {
+                write(newState, payloads.get(i++));
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The cursor is the index of the next slot to look at
+     */
+    @Override
+    public QuotaStatePage scan(String cursor, int limit) {
+        List<QuotaState> states = new ArrayList<>(limit);
+        lock.readLock().lock();
+        try {
+            int slot = cursor == null ? 0 : Integer.parseInt(cursor);
+            for (; slot < capacity && states.size() < limit; slot++) {
+                QuotaState quotaState = buffer.get(offsetOf(slot)) == USED ? readState(slot) : null;
+                if (quotaState != null) states.add(quotaState);
+            }
+            return new QuotaStatePage(states, slot < capacity ? String.valueOf(slot) : null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteIfVersion(QuotaStateId quotaStateId, long expectedVersion) {
+        byte[] key = keyOf(quotaStateId);
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(key, hashOf(key));
+            if (slot < 0 || buffer.get(offsetOf(slot)) != USED || !isIntact(offsetOf(slot))
+                    || buffer.getLong(offsetOf(slot) + VERSION) != expectedVersion) return false;
+            free(slot);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() {
+        if (forceScheduler != null) forceScheduler.shutdown();
+        lock.writeLock().lock();
+        try {
+            force();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void write(QuotaState quotaState, byte[] payload) {
+        byte[] key = keyOf(quotaState.id());
+        if (SLOT_HEADER_SIZE + key.length + payload.length > recordSize) {
+            throw new IllegalArgumentException("State " + quotaState.id() + " needs " + (SLOT_HEADER_SIZE + key.length + payload.length) + " bytes, recordSize is " + recordSize);
+        }
+        int hash = hashOf(key);
+        int slot = findSlot(key, hash);
+        if (slot < 0) throw new IllegalStateException("Mapped file is full, capacity: " + capacity);
+        int offset = offsetOf(slot);
+        boolean isNew = buffer.get(offset) != USED;
+        buffer.putInt(offset + HASH, hash);
+        buffer.putLong(offset + VERSION, quotaState.version());
+        buffer.putInt(offset + KEY_LENGTH, key.length);
+        buffer.putInt(offset + PAYLOAD_LENGTH, payload.length);
+        buffer.put(offset + SLOT_HEADER_SIZE, key);
+        buffer.put(offset + SLOT_HEADER_SIZE + key.length, payload);
+        buffer.putInt(offset + CRC, crcOf(offset, key.length + payload.length));
+        if (isNew) buffer.put(offset, USED);
+    }
+
+    private long currentVersion(QuotaStateId quotaStateId) {
+        byte[] key = keyOf(quotaStateId);
+        int slot = findSlot(key, hashOf(key));
+        if (slot < 0 || buffer.get(offsetOf(slot)) != USED || !isIntact(offsetOf(slot))) return 0;
+        return buffer.getLong(offsetOf(slot) + VERSION);
+    }
+
+    /**
+     * Returns the slot holding the key, or the first free slot where it would go, or -1 if the table is full
+     */
+    private int findSlot(byte[] key, int hash) {
+        int mask = capacity - 1;
+        int slot = hash & mask;
+        int firstDeleted = -1;
+        for (int probes = 0; probes < capacity; probes++, slot = (slot + 1) & mask) {
+            int offset = offsetOf(slot);
+            byte status = buffer.get(offset);
+            if (status == EMPTY) return firstDeleted >= 0 ? firstDeleted : slot;
+            if (status == DELETED) {
+                if (firstDeleted < 0) firstDeleted = slot;
+            } else if (buffer.getInt(offset + HASH) == hash && keyEquals(offset, key)) {
+                return slot;
+            }
+        }
+        return firstDeleted;
+    }
+
+    /**
+     * Knuth's algorithm R: moves back the following states of the cluster whose probe sequence starts at or before the hole
+     */
+    private void free(int slot) {
+        int mask = capacity - 1;
+        int hole = slot;
+        buffer.put(offsetOf(hole), DELETED);
+        for (int next = (hole + 1) & mask; next != slot; next = (next + 1) & mask) {
+            int offset = offsetOf(next);
+            byte status = buffer.get(offset);
+            if (status == EMPTY) break;
+            if (status != USED) continue;
+            int home = buffer.getInt(offset + HASH) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                buffer.put(offsetOf(hole) + 1, buffer, offset + 1, recordSize - 1);
+                buffer.put(offsetOf(hole), USED);
+                buffer.put(offset, DELETED);
+                hole = next;
+            }
+        }
+        buffer.put(offsetOf(hole), EMPTY);
+        clearDeletedBefore(hole);
+    }
+
+    /**
+     * Keeps, for each key, the copy lookups reach first, i.e. the nearest to its home slot. Duplicates can only be
+     * left by a move interrupted by a crash, the copies being identical.
+     */
+    private void dropDuplicateKeys() {
+        int mask = capacity - 1;
+        Map<ByteBuffer, Integer> slotsByKey = new HashMap<>();
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = offsetOf(slot);
+            if (buffer.get(offset) != USED || !isIntact(offset)) continue;
+            ByteBuffer key = buffer.slice(offset + SLOT_HEADER_SIZE, buffer.getInt(offset + KEY_LENGTH));
+            Integer other = slotsByKey.putIfAbsent(key, slot);
+            if (other == null) continue;
+            int home = buffer.getInt(offset + HASH) & mask;
+            int farther = ((slot - home) & mask) > ((other - home) & mask) ? slot : other;
+            buffer.put(offsetOf(farther), DELETED);
+            slotsByKey.put(key, farther == slot ? other : slot);
+        }
+    }
+
+    private void clearDeletedSlots() {
+        for (int slot = 0; slot < capacity; slot++) {
+            if (buffer.get(offsetOf(slot)) == EMPTY) clearDeletedBefore(slot);
+        }
+    }
+
+    /**
+     * No probe sequence goes past an empty slot, so the deleted slots right before it aren't needed anymore
+     */
+    private void clearDeletedBefore(int emptySlot) {
+        int mask = capacity - 1;
+        for (int slot = (emptySlot - 1) & mask; slot != emptySlot && buffer.get(offsetOf(slot)) == DELETED; slot = (slot - 1) & mask) {
+            buffer.put(offsetOf(slot), EMPTY);
+        }
+    }
+
+    int deletedSlots() {
+        int deleted = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (buffer.get(offsetOf(slot)) == DELETED) deleted++;
+        }
+        return deleted;
+    }
+
+    private boolean keyEquals(int offset, byte[] key) {
+        if (buffer.getInt(offset + KEY_LENGTH) != key.length) return false;
+        byte[] stored = new byte[key.length];
+        buffer.get(offset + SLOT_HEADER_SIZE, stored);
+        return Arrays.equals(stored, key);
+    }
+
+    /**
+     * Returns null if the slot was torn by a crash during an update
+     */
+    private QuotaState readState(int slot) {
+        int offset = offsetOf(slot);
+        if (!isIntact(offset)) return null;
+        int keyLength = buffer.getInt(offset + KEY_LENGTH);
+        byte[] payload = new byte[buffer.getInt(offset + PAYLOAD_LENGTH)];
+        buffer.get(offset + SLOT_HEADER_SIZE + keyLength, payload);
+        return codecs.decode(payload);
+    }
+
+    private int offsetOf(int slot) {
+        return HEADER_SIZE + slot * recordSize;
+    }
+
+    private boolean isIntact(int offset) {
+        int keyLength = buffer.getInt(offset + KEY_LENGTH);
+        int payloadLength = buffer.getInt(offset + PAYLOAD_LENGTH);
+        if (keyLength < 0 || payloadLength < 0 || (long) SLOT_HEADER_SIZE + keyLength + payloadLength > recordSize) return false;
+        return buffer.getInt(offset + CRC) == crcOf(offset, keyLength + payloadLength);
+    }
+
+    private int crcOf(int offset, int dataLength) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset + VERSION, SLOT_HEADER_SIZE - VERSION + dataLength));
+        return (int) crc.getValue();
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT_VERSION);
+        buffer.putInt(8, capacity);
+        buffer.putInt(12, recordSize);
+    }
+
+    private void verifyHeader(Path file) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IllegalStateException("Not a quota state file: " + file);
+        }
+        if (buffer.getInt(8) != capacity || buffer.getInt(12) != recordSize) {
+            throw new IllegalStateException("File " + file + " was created with capacity " + buffer.getInt(8) + " and recordSize " + buffer.getInt(12));
+        }
+    }
+
+    private static byte[] keyOf(QuotaStateId quotaStateId) {
+        return (quotaStateId.ownerId() + '\u0000' + quotaStateId.quotaId()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int hashOf(byte[] key) {
+        int h = Arrays.hashCode(key);
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        return h ^ (h >>> 13);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        return size < capacity ? size << 1 : size;
+    }
+}
@@ -1,7 +1,37 @@
 package com.myseotoolbox.quota4j.quotamanager;
 
+import java.util.Objects;
+
 public interface QuotaManager<T> {
+    /**
+     * Returned by {@link #nanosUntilAvailable(Object, long)} when waiting can't help
+     */
+    long NEVER = Long.MAX_VALUE;
+
     AcquireResponse tryAcquire(T state, long quantity);
 
     T getCurrentState(T currentState);
+
+    /**
+     * Gives back a quantity that was acquired and not used
+     */
+    default AcquireResponse<T> release(T state, long quantity) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support releasing quota");
+    }
+
+    /**
+     * True if the state is equivalent to a fresh one built from the quota default state, so it can be deleted and recreated lazily.
+     * By default it compares the current states, override it when they carry timestamps.
+     */
+    default boolean isIdle(T state, T defaultState) {
+        return Objects.equals(getCurrentState(state), getCurrentState(defaultState));
+    }
+
+    /**
+     * Estimates how long to wait before {@link #tryAcquire(Object, long)} can grant the quantity, assuming nobody else acquires meanwhile.
+     * Returns 0 if it can be granted now, {@link #NEVER} if it exceeds the limit or the manager can't tell, which is the default.
+     */
+    default long nanosUntilAvailable(T state, long quantity) {
+        return NEVER;
+    }
 }
@@ -0,0 +1,103 @@
+package com.myseotoolbox.quota4j.quotamanager.gcra;
+
+import com.myseotoolbox.quota4j.quotamanager.AcquireResponse;
+import com.myseotoolbox.quota4j.quotamanager.QuotaManager;
+import com.myseotoolbox.quota4j.time.QuotaClock;
+
+import java.time.Clock;
+
+/**
+ * Generic cell rate algorithm: capacity comes back continuously, one unit every {@code duration / quantity},
+ * instead of all at once at the end of the window like {@link com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager}.
+ * Up to {@code quantity} units can still be acquired at once after being idle for the whole duration.
+ */
+public class GcraQuotaManager implements QuotaManager<GcraState> {
+    private final QuotaClock clock;
+
+    public GcraQuotaManager(Clock clock) {
+        this(QuotaClock.of(clock));
+    }
+
+    public GcraQuotaManager(QuotaClock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public AcquireResponse<GcraState> tryAcquire(GcraState state, long quantity) {
+        if (exceedsLimit(state, quantity)) return AcquireResponse.declinedWithState(state);
+        long now = nowNanos();
+        long windowNanos = state.limit().durationNanos();
+        long newTheoreticalArrival = saturatedAdd(Math.max(state.theoreticalArrivalNanos(), now), cost(state, quantity, windowNanos));
+        if (newTheoreticalArrival - windowNanos <= now) {
+            return AcquireResponse.grantedWithState(new GcraState(state.limit(), newTheoreticalArrival));
+        }
+        return AcquireResponse.declinedWithState(state);
+    }
+
+    /**
+     * There is nothing to refill: the state only records when the quota will be full again
+     */
+    @Override
+    public GcraState getCurrentState(GcraState currentState) {
+        return currentState;
+    }
+
+    @Override
+    public long nanosUntilAvailable(GcraState state, long quantity) {
+        if (exceedsLimit(state, quantity)) return NEVER;
+        long now = nowNanos();
+        long windowNanos = state.limit().durationNanos();
+        long newTheoreticalArrival = saturatedAdd(Math.max(state.theoreticalArrivalNanos(), now), cost(state, quantity, windowNanos));
+        return Math.max(0, newTheoreticalArrival - windowNanos - now);
+    }
+
+    /**
+     * Once the theoretical arrival time is in the past the quota is full, like a new one
+     */
+    @Override
+    public boolean isIdle(GcraState state, GcraState defaultState) {
+        long now = nowNanos();
+        return state.limit().equals(defaultState.limit())
+                && state.theoreticalArrivalNanos() <= now
+                && defaultState.theoreticalArrivalNanos() <= now;
+    }
+
+    public long available(GcraState state) {
+        long windowNanos = state.limit().durationNanos();
+        long pendingNanos = Math.max(0, state.theoreticalArrivalNanos() - nowNanos());
+        if (windowNanos == 0) return state.limit().quantity();
+        return (long) ((double) (windowNanos - pendingNanos) * state.limit().quantity() / windowNanos);
+    }
+
+    /**
+     * More than the limit can never be granted, whatever the time, and a limit of zero grants nothing
+     */
+    private static boolean exceedsLimit(GcraState state, long quantity) {
+        return state.limit().quantity() <= 0 || quantity > state.limit().quantity();
+    }
+
+    /**
+     * {@code ceil(quantity * windowNanos / limit)}. With {@code quantity <= limit} it's at most {@code windowNanos}, so it never overflows:
+     * the product is computed exactly when it fits in a long, approximated with a double otherwise.
+     */
+    private static long cost(GcraState state, long quantity, long windowNanos) {
+        long limit = state.limit().quantity();
+        long whole = windowNanos / limit * quantity;
+        long remainder = windowNanos % limit;
+        if (Math.multiplyHigh(remainder, quantity) == 0 && remainder * quantity >= 0) {
+            long product = remainder * quantity;
+            return whole + product / limit + (product % limit == 0 ? 0 : 1);
+        }
+        return Math.min(windowNanos, whole + (long) Math.ceil((double) remainder * quantity / limit));
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        if (((a ^ sum) & (b ^ sum)) < 0) return sum < 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+        return sum;
+    }
+
+    private long nowNanos() {
+        return clock.nowNanos();
+    }
+}
@@ -0,0 +1,14 @@
+package com.myseotoolbox.quota4j.quotamanager.gcra;
+
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit;
+
+import java.io.Serializable;
+
+/**
+ * @param theoreticalArrivalNanos nanoseconds since epoch at which the quota is fully replenished. Anything in the past means full.
+ */
+public record GcraState(QuantityOverTimeLimit limit, long theoreticalArrivalNanos) implements Serializable {
+    public static GcraState full(QuantityOverTimeLimit limit) {
+        return new GcraState(limit, 0);
+    }
+}
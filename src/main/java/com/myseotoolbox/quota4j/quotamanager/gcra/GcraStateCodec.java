@@ -0,0 +1,33 @@
+package com.myseotoolbox.quota4j.quotamanager.gcra;
+
+import com.myseotoolbox.quota4j.codec.QuotaStateCodec;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+/**
+ * Fixed 28 bytes layout: {@code quantity | duration seconds | duration nanos | theoretical arrival nanos}
+ */
+public class GcraStateCodec implements QuotaStateCodec<GcraState> {
+    static final int SIZE = 8 + 8 + 4 + 8;
+
+    @Override
+    public int encodedSize(GcraState state) {
+        return SIZE;
+    }
+
+    @Override
+    public void encode(GcraState state, ByteBuffer buffer) {
+        buffer.putLong(state.limit().quantity());
+        buffer.putLong(state.limit().duration().getSeconds());
+        buffer.putInt(state.limit().duration().getNano());
+        buffer.putLong(state.theoreticalArrivalNanos());
+    }
+
+    @Override
+    public GcraState decode(ByteBuffer buffer) {
+        QuantityOverTimeLimit limit = new QuantityOverTimeLimit(buffer.getLong(), Duration.ofSeconds(buffer.getLong(), buffer.getInt()));
+        return new GcraState(limit, buffer.getLong());
+    }
+}
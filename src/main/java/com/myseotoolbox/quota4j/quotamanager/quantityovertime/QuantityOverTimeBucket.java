@@ -0,0 +1,71 @@
+package com.myseotoolbox.quota4j.quotamanager.quantityovertime;
+
+import java.time.Instant;
+
+/**
+ * Mutable, primitive only version of {@link QuantityOverTimeState} that follows the same rules as
+ * {@link QuantityOverTimeQuotaManager}. Acquiring doesn't allocate: meant for in memory hot paths where the same
+ * holder is reused for a key, see {@link QuantityOverTimeQuotaManager#tryAcquire(QuantityOverTimeBucket, long)}.
+ * <p>
+ * Times are nanoseconds since epoch, as returned by {@link com.myseotoolbox.quota4j.time.QuotaClock#nowNanos()}.
+ * Not thread safe, callers confine or synchronize it.
+ */
+public final class QuantityOverTimeBucket {
+    private final QuantityOverTimeLimit limit;
+    private final long limitQuantity;
+    private final long windowNanos;
+    private long available;
+    private long lastRefillNanos;
+
+    public QuantityOverTimeBucket(QuantityOverTimeLimit limit, long available, long lastRefillNanos) {
+        this.limit = limit;
+        this.limitQuantity = limit.quantity();
+        this.windowNanos = limit.durationNanos();
+        this.available = available;
+        this.lastRefillNanos = lastRefillNanos;
+    }
+
+    public static QuantityOverTimeBucket from(QuantityOverTimeState state) {
+        return new QuantityOverTimeBucket(state.limit(), state.available(), toEpochNanos(state.lastRefill()));
+    }
+
+    public boolean tryAcquire(long quantity, long nowNanos) {
+        refill(nowNanos);
+        if (available < quantity) return false;
+        available -= quantity;
+        return true;
+    }
+
+    public long available(long nowNanos) {
+        refill(nowNanos);
+        return available;
+    }
+
+    public long lastRefillNanos() {
+        return lastRefillNanos;
+    }
+
+    public QuantityOverTimeState toState() {
+        return new QuantityOverTimeState(limit, available, Instant.ofEpochSecond(0, lastRefillNanos));
+    }
+
+    private void refill(long nowNanos) {
+        if (nowNanos - lastRefillNanos >= windowNanos) {
+            available = Math.max(limitQuantity, available);
+            lastRefillNanos = nowNanos;
+        }
+    }
+
+    public static long toEpochNanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    /**
+     * End of the current window in nanoseconds since epoch, {@link Long#MAX_VALUE} if it's too far to be represented
+     */
+    public static long windowEndNanos(QuantityOverTimeState state) {
+        long windowStart = toEpochNanos(state.lastRefill());
+        long windowNanos = state.limit().durationNanos();
+        return windowStart > Long.MAX_VALUE - windowNanos ? Long.MAX_VALUE : windowStart + windowNanos;
+    }
+}
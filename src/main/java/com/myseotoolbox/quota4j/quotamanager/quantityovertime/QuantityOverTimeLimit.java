@@ -7,4 +7,11 @@ public record QuantityOverTimeLimit(long quantity, Duration duration) implements
     public static QuantityOverTimeLimit limitOf(long quantity, Duration duration) {
         return new QuantityOverTimeLimit(quantity, duration);
     }
+
+    /**
+     * The duration in nanoseconds, saturated to {@link Long#MAX_VALUE} for durations longer than about 292 years
+     */
+    public long durationNanos() {
+        return duration.getSeconds() >= Long.MAX_VALUE / 1_000_000_000L ? Long.MAX_VALUE : duration.toNanos();
+    }
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package com.myseotoolbox.quota4j.quotamanager.quantityovertime;
 
 import com.myseotoolbox.quota4j.quotamanager.AcquireResponse;
 import com.myseotoolbox.quota4j.quotamanager.QuotaManager;
+import com.myseotoolbox.quota4j.time.QuotaClock;
 
 import java.time.Clock;
 import java.time.Duration;
@@ -10,9 +11,13 @@ import java.time.Instant;
 
 
 public class QuantityOverTimeQuotaManager implements QuotaManager<QuantityOverTimeState> {
-    private final Clock clock;
+    private final QuotaClock clock;
 
     public QuantityOverTimeQuotaManager(Clock clock) {
+        this(QuotaClock.of(clock));
+    }
+
+    public QuantityOverTimeQuotaManager(QuotaClock clock) {
         this.clock = clock;
     }
 
@@ -27,20 +32,73 @@ public class QuantityOverTimeQuotaManager implements QuotaManager<QuantityOverTi
         }
     }
 
+    /**
+     * Allocation free version of {@link #tryAcquire(QuantityOverTimeState, long)} for states kept in memory: the bucket is updated in place.
+     */
+    public boolean tryAcquire(QuantityOverTimeBucket bucket, long quantity) {
+        return bucket.tryAcquire(quantity, clock.nowNanos());
+    }
+
+    /**
+     * Units are only given back to the window they were acquired from: if the window is over, they are dropped.
+     */
+    @Override
+    public AcquireResponse<QuantityOverTimeState> release(QuantityOverTimeState state, long quantity) {
+        QuantityOverTimeState currentState = getCurrentState(state);
+        if (currentState != state) {
+            return AcquireResponse.declinedWithState(currentState);
+        }
+        return AcquireResponse.grantedWithState(updateState(state, state.available() + quantity, state.lastRefill()));
+    }
+
     @Override
     public QuantityOverTimeState getCurrentState(QuantityOverTimeState currentState) {
-        Instant requestInstant = clock.instant();
-        return refill(currentState, requestInstant);
+        return refill(currentState, clock.nowNanos());
     }
 
-    private QuantityOverTimeState refill(QuantityOverTimeState currentState, Instant requestInstant) {
-        Duration durationSinceLastRefill = Duration.between(currentState.lastRefill(), requestInstant);
-        if (durationSinceLastRefill.compareTo(currentState.limit().duration()) >= 0) {
-            return updateState(currentState, Math.max(currentState.limit().quantity(), currentState.available()), requestInstant);
+    /**
+     * The whole quantity comes back at the end of the current window, {@code lastRefill + duration}
+     */
+    @Override
+    public long nanosUntilAvailable(QuantityOverTimeState state, long quantity) {
+        long nowNanos = clock.nowNanos();
+        QuantityOverTimeState currentState = refill(state, nowNanos);
+        if (currentState.available() >= quantity) return 0;
+        if (quantity > currentState.limit().quantity()) return NEVER;
+        return Math.max(0, QuantityOverTimeBucket.windowEndNanos(currentState) - nowNanos);
+    }
+
+    /**
+     * A fully refilled state is idle, whenever its window started
+     */
+    @Override
+    public boolean isIdle(QuantityOverTimeState state, QuantityOverTimeState defaultState) {
+        long nowNanos = clock.nowNanos();
+        QuantityOverTimeState current = refill(state, nowNanos);
+        QuantityOverTimeState fresh = refill(defaultState, nowNanos);
+        return current.limit().equals(fresh.limit()) && current.available() == fresh.available();
+    }
+
+    private QuantityOverTimeState refill(QuantityOverTimeState currentState, long nowNanos) {
+        long nowSeconds = Math.floorDiv(nowNanos, 1_000_000_000L);
+        int nowNano = (int) Math.floorMod(nowNanos, 1_000_000_000L);
+        if (hasElapsed(currentState.lastRefill(), nowSeconds, nowNano, currentState.limit().duration())) {
+            return updateState(currentState, Math.max(currentState.limit().quantity(), currentState.available()), Instant.ofEpochSecond(nowSeconds, nowNano));
         }
         return currentState;
     }
 
+    // Same as Duration.between(from, to).compareTo(duration) >= 0, without allocating
+    private static boolean hasElapsed(Instant from, long toSeconds, int toNanos, Duration duration) {
+        long seconds = toSeconds - from.getEpochSecond();
+        int nanos = toNanos - from.getNano();
+        if (nanos < 0) {
+            seconds--;
+            nanos += 1_000_000_000;
+        }
+        return seconds > duration.getSeconds() || (seconds == duration.getSeconds() && nanos >= duration.getNano());
+    }
+
     private QuantityOverTimeState updateState(QuantityOverTimeState currentState, long quantity, Instant lastRefill) {
         return new QuantityOverTimeState(currentState.limit(), quantity, lastRefill);
     }
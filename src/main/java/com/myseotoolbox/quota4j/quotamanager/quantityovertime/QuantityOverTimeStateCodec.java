@@ -0,0 +1,36 @@
+package com.myseotoolbox.quota4j.quotamanager.quantityovertime;
+
+import com.myseotoolbox.quota4j.codec.QuotaStateCodec;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Fixed 40 bytes layout: {@code quantity | duration seconds | duration nanos | available | last refill seconds | last refill nanos}
+ */
+public class QuantityOverTimeStateCodec implements QuotaStateCodec<QuantityOverTimeState> {
+    static final int SIZE = 8 + 8 + 4 + 8 + 8 + 4;
+
+    @Override
+    public int encodedSize(QuantityOverTimeState state) {
+        return SIZE;
+    }
+
+    @Override
+    public void encode(QuantityOverTimeState state, ByteBuffer buffer) {
+        buffer.putLong(state.limit().quantity());
+        buffer.putLong(state.limit().duration().getSeconds());
+        buffer.putInt(state.limit().duration().getNano());
+        buffer.putLong(state.available());
+        buffer.putLong(state.lastRefill().getEpochSecond());
+        buffer.putInt(state.lastRefill().getNano());
+    }
+
+    @Override
+    public QuantityOverTimeState decode(ByteBuffer buffer) {
+        QuantityOverTimeLimit limit = new QuantityOverTimeLimit(buffer.getLong(), Duration.ofSeconds(buffer.getLong(), buffer.getInt()));
+        long available = buffer.getLong();
+        return new QuantityOverTimeState(limit, available, Instant.ofEpochSecond(buffer.getLong(), buffer.getInt()));
+    }
+}
@@ -0,0 +1,104 @@
+package com.myseotoolbox.quota4j.quotamanager.slidingwindow;
+
+import com.myseotoolbox.quota4j.quotamanager.AcquireResponse;
+import com.myseotoolbox.quota4j.quotamanager.QuotaManager;
+import com.myseotoolbox.quota4j.time.QuotaClock;
+
+abstract class AbstractSlidingWindowQuotaManager implements QuotaManager<SlidingWindowState> {
+    private final QuotaClock clock;
+
+    AbstractSlidingWindowQuotaManager(QuotaClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @param counts          ring already advanced to {@code nowBucket}
+     * @param elapsedInBucket nanoseconds elapsed since the beginning of {@code nowBucket}
+     */
+    abstract double used(SlidingWindowLimit limit, long[] counts, long nowBucket, long elapsedInBucket);
+
+    @Override
+    public AcquireResponse<SlidingWindowState> tryAcquire(SlidingWindowState state, long quantity) {
+        long now = nowNanos();
+        long bucketNanos = state.limit().bucketNanos();
+        long nowBucket = Math.max(now / bucketNanos, state.headBucket());
+        long[] counts = advance(state, nowBucket);
+        if (used(state.limit(), counts, nowBucket, now - nowBucket * bucketNanos) + quantity > state.limit().quantity()) {
+            return AcquireResponse.declinedWithState(state);
+        }
+        counts[index(nowBucket, counts.length)] += quantity;
+        return AcquireResponse.grantedWithState(new SlidingWindowState(state.limit(), counts, nowBucket));
+    }
+
+    /**
+     * Expired buckets are only dropped on the next acquire, reading the state doesn't change it
+     */
+    @Override
+    public SlidingWindowState getCurrentState(SlidingWindowState currentState) {
+        return currentState;
+    }
+
+    /**
+     * Checks the start of each of the next buckets, the first one where enough units have left the window.
+     * An upper bound when units are weighted within the bucket.
+     */
+    @Override
+    public long nanosUntilAvailable(SlidingWindowState state, long quantity) {
+        if (quantity > state.limit().quantity()) return NEVER;
+        long now = nowNanos();
+        long bucketNanos = state.limit().bucketNanos();
+        long nowBucket = Math.max(now / bucketNanos, state.headBucket());
+        if (used(state.limit(), advance(state, nowBucket), nowBucket, now - nowBucket * bucketNanos) + quantity <= state.limit().quantity()) return 0;
+        for (long bucket = nowBucket + 1; bucket <= nowBucket + state.counts().length; bucket++) {
+            if (used(state.limit(), advance(state, bucket), bucket, 0) + quantity <= state.limit().quantity()) {
+                return Math.max(0, bucket * bucketNanos - now);
+            }
+        }
+        return NEVER;
+    }
+
+    /**
+     * Idle once every acquired unit has left the window
+     */
+    @Override
+    public boolean isIdle(SlidingWindowState state, SlidingWindowState defaultState) {
+        long now = nowNanos();
+        return state.limit().equals(defaultState.limit()) && isEmpty(state, now) && isEmpty(defaultState, now);
+    }
+
+    public long available(SlidingWindowState state) {
+        long now = nowNanos();
+        long bucketNanos = state.limit().bucketNanos();
+        long nowBucket = Math.max(now / bucketNanos, state.headBucket());
+        long[] counts = advance(state, nowBucket);
+        double used = used(state.limit(), counts, nowBucket, now - nowBucket * bucketNanos);
+        return Math.max(0, state.limit().quantity() - (long) Math.ceil(used));
+    }
+
+    private static boolean isEmpty(SlidingWindowState state, long now) {
+        long nowBucket = Math.max(now / state.limit().bucketNanos(), state.headBucket());
+        for (long count : advance(state, nowBucket)) {
+            if (count != 0) return false;
+        }
+        return true;
+    }
+
+    static int index(long bucket, int length) {
+        return (int) Math.floorMod(bucket, (long) length);
+    }
+
+    private static long[] advance(SlidingWindowState state, long nowBucket) {
+        long[] counts = state.counts();
+        long expired = nowBucket - state.headBucket();
+        if (expired >= counts.length) return new long[counts.length];
+        long[] advanced = counts.clone();
+        for (long bucket = state.headBucket() + 1; bucket <= nowBucket; bucket++) {
+            advanced[index(bucket, advanced.length)] = 0;
+        }
+        return advanced;
+    }
+
+    private long nowNanos() {
+        return clock.nowNanos();
+    }
+}
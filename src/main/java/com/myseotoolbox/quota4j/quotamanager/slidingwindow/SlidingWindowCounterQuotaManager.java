@@ -0,0 +1,31 @@
+package com.myseotoolbox.quota4j.quotamanager.slidingwindow;
+
+import com.myseotoolbox.quota4j.time.QuotaClock;
+
+import java.time.Clock;
+
+/**
+ * Approximated rolling window: the oldest bucket, partially out of the window, is weighted by the fraction of it that
+ * is still inside. Assumes acquires were evenly spread within that bucket.
+ */
+public class SlidingWindowCounterQuotaManager extends AbstractSlidingWindowQuotaManager {
+
+    public SlidingWindowCounterQuotaManager(Clock clock) {
+        this(QuotaClock.of(clock));
+    }
+
+    public SlidingWindowCounterQuotaManager(QuotaClock clock) {
+        super(clock);
+    }
+
+    @Override
+    double used(SlidingWindowLimit limit, long[] counts, long nowBucket, long elapsedInBucket) {
+        int oldest = index(nowBucket - limit.buckets(), counts.length);
+        double used = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (i != oldest) used += counts[i];
+        }
+        double stillInWindow = 1 - (double) elapsedInBucket / limit.bucketNanos();
+        return used + counts[oldest] * stillInWindow;
+    }
+}
@@ -0,0 +1,22 @@
+package com.myseotoolbox.quota4j.quotamanager.slidingwindow;
+
+import java.io.Serializable;
+import java.time.Duration;
+
+/**
+ * @param buckets number of slots the window is divided into. More buckets means more precision and a bigger state.
+ */
+public record SlidingWindowLimit(long quantity, Duration window, int buckets) implements Serializable {
+    public SlidingWindowLimit {
+        if (buckets < 1) throw new IllegalArgumentException("buckets must be positive: " + buckets);
+        if (window.toNanos() < buckets) throw new IllegalArgumentException("window too short for " + buckets + " buckets: " + window);
+    }
+
+    public static SlidingWindowLimit limitOf(long quantity, Duration window, int buckets) {
+        return new SlidingWindowLimit(quantity, window, buckets);
+    }
+
+    public long bucketNanos() {
+        return window.toNanos() / buckets;
+    }
+}
@@ -0,0 +1,30 @@
+package com.myseotoolbox.quota4j.quotamanager.slidingwindow;
+
+import com.myseotoolbox.quota4j.time.QuotaClock;
+
+import java.time.Clock;
+
+/**
+ * Strict rolling window: a unit is counted until the whole bucket it was acquired in has left the window,
+ * so no window of {@code limit.window()} ever sees more than {@code limit.quantity()} units.
+ * The price is granting a bit less than the limit, up to one bucket worth of time late.
+ */
+public class SlidingWindowLogQuotaManager extends AbstractSlidingWindowQuotaManager {
+
+    public SlidingWindowLogQuotaManager(Clock clock) {
+        this(QuotaClock.of(clock));
+    }
+
+    public SlidingWindowLogQuotaManager(QuotaClock clock) {
+        super(clock);
+    }
+
+    @Override
+    double used(SlidingWindowLimit limit, long[] counts, long nowBucket, long elapsedInBucket) {
+        long used = 0;
+        for (long count : counts) {
+            used += count;
+        }
+        return used;
+    }
+}
@@ -0,0 +1,38 @@
+package com.myseotoolbox.quota4j.quotamanager.slidingwindow;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Ring of {@code limit.buckets() + 1} counts: the bucket with absolute index {@code i} (nanoseconds since epoch
+ * divided by {@link SlidingWindowLimit#bucketNanos()}) lives at {@code counts[i % counts.length]}.
+ * The extra bucket holds the part of the window that is partially expired.
+ * <p>
+ * Managers never modify {@code counts}, every update creates a new state.
+ *
+ * @param headBucket absolute index of the most recent bucket in the ring
+ */
+public record SlidingWindowState(SlidingWindowLimit limit, long[] counts, long headBucket) implements Serializable {
+
+    public static SlidingWindowState empty(SlidingWindowLimit limit) {
+        return new SlidingWindowState(limit, new long[limit.buckets() + 1], 0);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SlidingWindowState that)) return false;
+        return headBucket == that.headBucket && limit.equals(that.limit) && Arrays.equals(counts, that.counts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(limit, headBucket) * 31 + Arrays.hashCode(counts);
+    }
+
+    @Override
+    public String toString() {
+        return "SlidingWindowState[limit=" + limit + ", counts=" + Arrays.toString(counts) + ", headBucket=" + headBucket + "]";
+    }
+}
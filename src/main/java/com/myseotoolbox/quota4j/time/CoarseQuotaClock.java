@@ -0,0 +1,53 @@
+package com.myseotoolbox.quota4j.time;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the time in a volatile field refreshed by a background ticker every {@code resolution}:
+ * reading it costs a volatile read instead of a system call. Good enough for windows of seconds or more,
+ * the time returned can be up to one resolution behind.
+ */
+public class CoarseQuotaClock implements QuotaClock, AutoCloseable {
+    private final QuotaClock source;
+    private final ScheduledExecutorService ticker;
+    private volatile long nowMillis;
+
+    public CoarseQuotaClock(Duration resolution) {
+        this(QuotaClock.system(), resolution);
+    }
+
+    public CoarseQuotaClock(QuotaClock source, Duration resolution) {
+        if (resolution.isNegative() || resolution.isZero()) throw new IllegalArgumentException("resolution must be positive: " + resolution);
+        this.source = source;
+        this.nowMillis = source.nowMillis();
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "quota4j-coarse-clock");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long resolutionNanos = resolution.toNanos();
+        ticker.scheduleAtFixedRate(this::tick, resolutionNanos, resolutionNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public long nowMillis() {
+        return nowMillis;
+    }
+
+    @Override
+    public long nowNanos() {
+        return nowMillis * 1_000_000L;
+    }
+
+    void tick() {
+        nowMillis = source.nowMillis();
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+}
@@ -0,0 +1,45 @@
+package com.myseotoolbox.quota4j.time;
+
+import java.time.Clock;
+import java.time.Instant;
+
+/**
+ * Time source of the quota managers. Returns primitives so reading the time doesn't allocate.
+ */
+public interface QuotaClock {
+
+    /**
+     * Milliseconds since epoch
+     */
+    long nowMillis();
+
+    /**
+     * Nanoseconds since epoch. Precision depends on the implementation.
+     */
+    long nowNanos();
+
+    /**
+     * Millisecond precision, reads {@link System#currentTimeMillis()} on every call
+     */
+    static QuotaClock system() {
+        return SystemQuotaClock.INSTANCE;
+    }
+
+    /**
+     * Adapter for {@link Clock}, full precision but allocates an {@link Instant} when reading nanos
+     */
+    static QuotaClock of(Clock clock) {
+        return new QuotaClock() {
+            @Override
+            public long nowMillis() {
+                return clock.millis();
+            }
+
+            @Override
+            public long nowNanos() {
+                Instant now = clock.instant();
+                return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+            }
+        };
+    }
+}
@@ -0,0 +1,15 @@
+package com.myseotoolbox.quota4j.time;
+
+enum SystemQuotaClock implements QuotaClock {
+    INSTANCE;
+
+    @Override
+    public long nowMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public long nowNanos() {
+        return System.currentTimeMillis() * 1_000_000L;
+    }
+}
@@ -0,0 +1,129 @@
+package com.myseotoolbox.quota4j;
+
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.persistence.QuotaPersistence;
+import com.myseotoolbox.quota4j.quotamanager.AcquireResponse;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit.limitOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class AsyncQuotaServiceTest {
+
+    private static final String QUOTA_ID = "crawler.maxCrawlsPerDay";
+    private static final String OWNER_ID = "owner123@localhost";
+
+    private final TestClock testClock = new TestClock();
+    private final InMemoryQuotaStatePersistence quotaStatePersistence = new InMemoryQuotaStatePersistence();
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @Mock
+    private QuotaPersistence quotaPersistence;
+
+    AsyncQuotaService sut;
+
+    @BeforeEach
+    void setUp() {
+        sut = AsyncQuotaService.onExecutor(quotaPersistence, quotaStatePersistence, executor);
+        sut.registerQuotaManagerFactory(QuantityOverTimeQuotaManager.class.getName(), () -> new QuantityOverTimeQuotaManager(testClock));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldAcquireAsynchronously() throws Exception {
+        givenQuotaWithAvailable(10);
+
+        assertTrue(sut.tryAcquireAsync(OWNER_ID, QUOTA_ID, 10).get().result());
+        assertFalse(sut.tryAcquireAsync(OWNER_ID, QUOTA_ID, 1).get().result());
+    }
+
+    @Test
+    void shouldReturnCurrentState() throws Exception {
+        givenQuotaWithAvailable(10);
+
+        sut.tryAcquireAsync(OWNER_ID, QUOTA_ID, 3).get();
+
+        assertThat(((QuantityOverTimeState) sut.getQuotaStateAsync(OWNER_ID, QUOTA_ID).get()).available(), is(7L));
+    }
+
+    @Test
+    void concurrentAcquiresOnSameStateShouldNotOverGrant() throws Exception {
+        givenQuotaWithAvailable(100);
+
+        List<CompletableFuture<AcquireResponse<?>>> responses = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            responses.add(sut.tryAcquireAsync(OWNER_ID, QUOTA_ID, 1));
+        }
+        long granted = 0;
+        for (CompletableFuture<AcquireResponse<?>> response : responses) {
+            if (response.get().result()) granted++;
+        }
+
+        assertThat(granted, is(100L));
+        QuantityOverTimeState persisted = (QuantityOverTimeState) quotaStatePersistence.get(QuotaStateId.create(OWNER_ID, QUOTA_ID)).get().currentState();
+        assertThat(persisted.available(), is(0L));
+    }
+
+    @Test
+    void shouldFailWithQuotaNotFound() {
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> sut.tryAcquireAsync(OWNER_ID, QUOTA_ID, 1).get());
+        assertTrue(exception.getCause() instanceof QuotaNotFoundException);
+    }
+
+    @Test
+    void acquireAsyncShouldCompleteOnceRefilled() throws Exception {
+        sut.registerQuotaManagerFactory(QuantityOverTimeQuotaManager.class.getName(), () -> new QuantityOverTimeQuotaManager(Clock.systemUTC()));
+        givenQuotaWithAvailable(1, Duration.ofMillis(50));
+        sut.tryAcquireAsync(OWNER_ID, QUOTA_ID, 1).get();
+
+        assertTrue(sut.acquireAsync(OWNER_ID, QUOTA_ID, 1, Duration.ofSeconds(5)).get().result());
+    }
+
+    @Test
+    void acquireAsyncShouldGiveUpIfWaitIsTooLong() throws Exception {
+        givenQuotaWithAvailable(1);
+        sut.tryAcquireAsync(OWNER_ID, QUOTA_ID, 1).get();
+
+        assertFalse(sut.acquireAsync(OWNER_ID, QUOTA_ID, 1, Duration.ofSeconds(5)).get().result());
+    }
+
+    private void givenQuotaWithAvailable(long available) {
+        givenQuotaWithAvailable(available, Duration.ofDays(1));
+    }
+
+    private void givenQuotaWithAvailable(long available, Duration duration) {
+        QuantityOverTimeState defaultState = new QuantityOverTimeState(limitOf(available, duration), available, Instant.EPOCH);
+        when(quotaPersistence.findById(QUOTA_ID)).thenReturn(Optional.of(QuotaBuilder.createWithQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class.getName())
+                .defaultState(defaultState)
+                .build()));
+    }
+}
@@ -0,0 +1,149 @@
+package com.myseotoolbox.quota4j;
+
+import com.myseotoolbox.quota4j.metrics.QuotaMetrics;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.persistence.QuotaPersistence;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeState;
+import com.myseotoolbox.quota4j.time.QuotaClock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit.limitOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class DenyCacheTest {
+
+    private static final String QUOTA_ID = "crawler.maxCrawlsPerDay";
+    private static final String OWNER_ID = "owner123@localhost";
+
+    private final TestClock testClock = new TestClock();
+    private final InMemoryQuotaStatePersistence quotaStatePersistence = new InMemoryQuotaStatePersistence();
+    private final DenyCache denyCache = new DenyCache(100, Duration.ofMinutes(1), QuotaClock.of(testClock));
+
+    @Mock
+    private QuotaPersistence quotaPersistence;
+
+    QuotaService sut;
+
+    @BeforeEach
+    void setUp() {
+        sut = new QuotaService(quotaPersistence, quotaStatePersistence, QuotaServiceOptions.defaults().withDenyCache(denyCache));
+        sut.registerQuotaManagerFactory(QuantityOverTimeQuotaManager.class.getName(), () -> new QuantityOverTimeQuotaManager(testClock));
+        QuantityOverTimeState defaultState = new QuantityOverTimeState(limitOf(10, Duration.ofSeconds(30)), 10, Instant.EPOCH);
+        when(quotaPersistence.findById(QUOTA_ID)).thenReturn(Optional.of(QuotaBuilder.createWithQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class.getName())
+                .defaultState(defaultState)
+                .build()));
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 10);
+    }
+
+    @Test
+    void shouldDeclineRetriesWithoutReadingTheState() {
+        assertFalse(sut.tryAcquire(OWNER_ID, QUOTA_ID, 1).result());
+        int reads = quotaStatePersistence.findCount();
+
+        assertFalse(sut.tryAcquire(OWNER_ID, QUOTA_ID, 1).result());
+        assertFalse(sut.tryAcquire(OWNER_ID, QUOTA_ID, 5).result());
+
+        assertThat(quotaStatePersistence.findCount(), is(reads));
+    }
+
+    @Test
+    void shouldReturnTimeLeftAsRetryHint() {
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+        testClock.changeTime(curTime -> curTime.plus(10, ChronoUnit.SECONDS));
+
+        assertThat(sut.tryAcquireWithRetryHint(OWNER_ID, QUOTA_ID, 1).retryAfter(), is(Optional.of(Duration.ofSeconds(20))));
+    }
+
+    @Test
+    void shouldGrantOnceAvailable() {
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+        testClock.changeTime(curTime -> curTime.plus(30, ChronoUnit.SECONDS));
+
+        assertTrue(sut.tryAcquire(OWNER_ID, QUOTA_ID, 1).result());
+    }
+
+    @Test
+    void smallerQuantitiesShouldReadTheState() {
+        sut.release(OWNER_ID, QUOTA_ID, 3);
+        assertFalse(sut.tryAcquire(OWNER_ID, QUOTA_ID, 5).result());
+
+        assertTrue(sut.tryAcquire(OWNER_ID, QUOTA_ID, 3).result());
+    }
+
+    @Test
+    void releaseAndInvalidationShouldDropTheEntry() {
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+        assertThat(denyCache.size(), is(1));
+
+        denyCache.invalidateQuota(QUOTA_ID);
+        assertThat(denyCache.size(), is(0));
+
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+        sut.release(OWNER_ID, QUOTA_ID, 1);
+        assertTrue(sut.tryAcquire(OWNER_ID, QUOTA_ID, 1).result());
+    }
+
+    @Test
+    void releaseRightAfterADeclineShouldNotLeaveItCached() {
+        AtomicBoolean releasing = new AtomicBoolean(true);
+        AtomicReference<QuotaService> service = new AtomicReference<>();
+        // metrics are recorded once the stripe lock is released, the release gets in there
+        service.set(new QuotaService(quotaPersistence, quotaStatePersistence, QuotaServiceOptions.defaults().withDenyCache(denyCache).withMetrics(new QuotaMetrics() {
+            @Override
+            public void acquired(String quotaId, boolean granted, long latencyNanos) {
+                if (!granted && releasing.getAndSet(false)) service.get().release(OWNER_ID, QUOTA_ID, 1);
+            }
+        })));
+        service.get().registerQuotaManagerFactory(QuantityOverTimeQuotaManager.class.getName(), () -> new QuantityOverTimeQuotaManager(testClock));
+
+        assertFalse(service.get().tryAcquire(OWNER_ID, QUOTA_ID, 1).result());
+
+        assertTrue(service.get().tryAcquire(OWNER_ID, QUOTA_ID, 1).result());
+    }
+
+    @Test
+    void shouldNotExceedMaxSize() {
+        DenyCache small = new DenyCache(1, Duration.ofMinutes(1), QuotaClock.of(testClock));
+
+        small.declined(QuotaStateId.create("owner1", QUOTA_ID), 1, null, Duration.ofSeconds(1).toNanos());
+        small.declined(QuotaStateId.create("owner2", QUOTA_ID), 1, null, Duration.ofSeconds(1).toNanos());
+        assertThat(small.size(), is(1));
+
+        testClock.changeTime(curTime -> curTime.plus(1, ChronoUnit.MINUTES));
+        small.declined(QuotaStateId.create("owner2", QUOTA_ID), 1, null, Duration.ofSeconds(1).toNanos());
+        assertThat(small.size(), is(1));
+        assertTrue(small.check(QuotaStateId.create("owner2", QUOTA_ID), 1) != null);
+    }
+
+    @Test
+    void fullCacheShouldPurgeAtMostOncePerTtl() {
+        DenyCache small = new DenyCache(1, Duration.ofMinutes(1), QuotaClock.of(testClock));
+        small.declined(QuotaStateId.create("owner1", QUOTA_ID), 1, null, Duration.ofSeconds(1).toNanos());
+        small.declined(QuotaStateId.create("owner2", QUOTA_ID), 1, null, Duration.ofSeconds(1).toNanos());
+
+        testClock.changeTime(curTime -> curTime.plus(1, ChronoUnit.SECONDS));
+        small.declined(QuotaStateId.create("owner3", QUOTA_ID), 1, null, Duration.ofSeconds(1).toNanos());
+
+        assertThat(small.check(QuotaStateId.create("owner3", QUOTA_ID), 1), nullValue());
+        assertThat(small.size(), is(1));
+    }
+}
@@ -0,0 +1,116 @@
+package com.myseotoolbox.quota4j;
+
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.persistence.ExpirableQuotaStatePersistence;
+import com.myseotoolbox.quota4j.persistence.QuotaStatePage;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InMemoryQuotaStatePersistence implements ExpirableQuotaStatePersistence {
+
+    private final Map<QuotaStateId, QuotaState> states = new ConcurrentHashMap<>();
+    private final AtomicInteger findCount = new AtomicInteger();
+    private final AtomicInteger saveCount = new AtomicInteger();
+    private final AtomicInteger findAllCount = new AtomicInteger();
+    private final AtomicInteger saveAllCount = new AtomicInteger();
+
+    @Override
+    public Optional<QuotaState> findById(QuotaStateId quotaStateId) {
+        findCount.incrementAndGet();
+        return Optional.ofNullable(states.get(quotaStateId));
+    }
+
+    @Override
+    public QuotaState save(QuotaState quotaState) {
+        saveCount.incrementAndGet();
+        states.put(quotaState.id(), quotaState);
+        return quotaState;
+    }
+
+    @Override
+    public List<QuotaState> findAllById(Collection<QuotaStateId> quotaStateIds) {
+        findAllCount.incrementAndGet();
+        return quotaStateIds.stream().map(states::get).filter(state -> state != null).toList();
+    }
+
+    @Override
+    public List<QuotaState> saveAll(Collection<QuotaState> quotaStates) {
+        saveAllCount.incrementAndGet();
+        quotaStates.forEach(quotaState -> states.put(quotaState.id(), quotaState));
+        return List.copyOf(quotaStates);
+    }
+
+    @Override
+    public synchronized boolean compareAndSave(long expectedVersion, QuotaState newState) {
+        saveCount.incrementAndGet();
+        if (currentVersion(newState.id()) != expectedVersion) return false;
+        states.put(newState.id(), newState);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean compareAndSaveAll(Collection<QuotaState> newStates) {
+        saveAllCount.incrementAndGet();
+        if (!newStates.stream().allMatch(newState -> currentVersion(newState.id()) == newState.version() - 1)) return false;
+        newStates.forEach(newState -> states.put(newState.id(), newState));
+        return true;
+    }
+
+    /**
+     * The cursor is the key of the last state returned, states are scanned in key order
+     */
+    @Override
+    public QuotaStatePage scan(String cursor, int limit) {
+        List<QuotaState> page = states.values().stream()
+                .filter(state -> cursor == null || keyOf(state).compareTo(cursor) > 0)
+                .sorted(Comparator.comparing(InMemoryQuotaStatePersistence::keyOf))
+                .limit(limit + 1L)
+                .toList();
+        if (page.size() <= limit) return new QuotaStatePage(page, null);
+        List<QuotaState> states = page.subList(0, limit);
+        return new QuotaStatePage(states, keyOf(states.get(limit - 1)));
+    }
+
+    @Override
+    public synchronized boolean deleteIfVersion(QuotaStateId quotaStateId, long expectedVersion) {
+        if (!states.containsKey(quotaStateId) || currentVersion(quotaStateId) != expectedVersion) return false;
+        states.remove(quotaStateId);
+        return true;
+    }
+
+    private static String keyOf(QuotaState quotaState) {
+        return quotaState.id().ownerId() + '\u0000' + quotaState.id().quotaId();
+    }
+
+    private long currentVersion(QuotaStateId quotaStateId) {
+        QuotaState current = states.get(quotaStateId);
+        return current == null ? 0 : current.version();
+    }
+
+    public Optional<QuotaState> get(QuotaStateId quotaStateId) {
+        return Optional.ofNullable(states.get(quotaStateId));
+    }
+
+    public int findCount() {
+        return findCount.get();
+    }
+
+    public int saveCount() {
+        return saveCount.get();
+    }
+
+    public int findAllCount() {
+        return findAllCount.get();
+    }
+
+    public int saveAllCount() {
+        return saveAllCount.get();
+    }
+}
@@ -0,0 +1,127 @@
+package com.myseotoolbox.quota4j;
+
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.persistence.QuotaPersistence;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeState;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+import static com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit.limitOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class LeasingQuotaServiceTest {
+
+    private static final String QUOTA_ID = "crawler.maxCrawlsPerDay";
+    private static final String OWNER_ID = "owner123@localhost";
+    private static final QuotaStateId QUOTA_STATE_ID = QuotaStateId.create(OWNER_ID, QUOTA_ID);
+
+    private final TestClock testClock = new TestClock();
+    private final InMemoryQuotaStatePersistence quotaStatePersistence = new InMemoryQuotaStatePersistence();
+
+    @Mock
+    private QuotaPersistence quotaPersistence;
+
+    LeasingQuotaService sut;
+
+    @BeforeEach
+    void setUp() {
+        QuotaService quotaService = new QuotaService(quotaPersistence, quotaStatePersistence);
+        quotaService.registerQuotaManagerFactory(QuantityOverTimeQuotaManager.class.getName(), () -> new QuantityOverTimeQuotaManager(testClock));
+        QuantityOverTimeState defaultState = new QuantityOverTimeState(limitOf(12, Duration.ofDays(1)), 12, Instant.EPOCH);
+        when(quotaPersistence.findById(QUOTA_ID)).thenReturn(Optional.of(QuotaBuilder.createWithQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class.getName())
+                .defaultState(defaultState)
+                .build()));
+        sut = new LeasingQuotaService(quotaService, LeaseOptions.of(5, Duration.ofHours(1)), testClock);
+    }
+
+    @Test
+    void shouldServeAcquiresFromLeasedBlock() {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(sut.tryAcquire(OWNER_ID, QUOTA_ID, 1));
+        }
+
+        assertThat(quotaStatePersistence.saveCount(), is(2));
+        assertThat(persistedAvailable(), is(2L));
+    }
+
+    @Test
+    void shouldFallBackToExactQuantityWhenBlockIsNotAvailable() {
+        for (int i = 0; i < 12; i++) {
+            assertTrue(sut.tryAcquire(OWNER_ID, QUOTA_ID, 1));
+        }
+
+        assertFalse(sut.tryAcquire(OWNER_ID, QUOTA_ID, 1));
+        assertThat(persistedAvailable(), is(0L));
+    }
+
+    @Test
+    void closeShouldGiveBackUnusedUnits() {
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+        assertThat(sut.leased(OWNER_ID, QUOTA_ID), is(4L));
+
+        sut.close();
+
+        assertThat(persistedAvailable(), is(11L));
+    }
+
+    @Test
+    void unusedUnitsShouldNotBeGivenBackToANewWindow() {
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+        testClock.changeTime(instant -> instant.plus(Duration.ofDays(1)));
+
+        sut.close();
+
+        assertThat(persistedAvailable(), is(12L));
+    }
+
+    @Test
+    void leaseShouldExpireWithItsWindow() {
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+        testClock.changeTime(instant -> instant.plus(Duration.ofDays(1)));
+
+        assertTrue(sut.tryAcquire(OWNER_ID, QUOTA_ID, 1));
+
+        assertThat(persistedAvailable(), is(7L));
+        assertThat(sut.leased(OWNER_ID, QUOTA_ID), is(4L));
+    }
+
+    @Test
+    void leaseExpiredByMaxDurationShouldGiveBackItsUnits() {
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+        testClock.changeTime(instant -> instant.plus(Duration.ofHours(1)));
+
+        assertTrue(sut.tryAcquire(OWNER_ID, QUOTA_ID, 1));
+
+        assertThat(persistedAvailable(), is(6L));
+        assertThat(sut.leased(OWNER_ID, QUOTA_ID), is(4L));
+    }
+
+    @Test
+    void expiredLeasesOfIdleOwnersShouldBeGivenBack() {
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+        testClock.changeTime(instant -> instant.plus(Duration.ofHours(1)));
+
+        sut.tryAcquire("other-owner", QUOTA_ID, 1);
+
+        assertThat(sut.leased(OWNER_ID, QUOTA_ID), is(0L));
+        assertThat(persistedAvailable(), is(11L));
+    }
+
+    private long persistedAvailable() {
+        return ((QuantityOverTimeState) quotaStatePersistence.get(QUOTA_STATE_ID).get().currentState()).available();
+    }
+}
@@ -9,6 +9,7 @@ public class QuotaBuilder {
     private final String quotaId;
     private String quotaManagerClassName;
     private Object defaultState;
+    private String parentQuotaId;
 
     QuotaBuilder(String quotaId) {
         this.quotaId = quotaId;
@@ -28,7 +29,12 @@ public class QuotaBuilder {
         return this;
     }
 
+    public QuotaBuilder withParentQuotaId(String parentQuotaId) {
+        this.parentQuotaId = parentQuotaId;
+        return this;
+    }
+
     public Quota build() {
-        return new Quota(quotaId, quotaManagerClassName, defaultState);
+        return new Quota(quotaId, quotaManagerClassName, defaultState, parentQuotaId);
     }
 }
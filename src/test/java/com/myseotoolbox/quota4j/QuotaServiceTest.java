@@ -1,10 +1,12 @@
 package com.myseotoolbox.quota4j;
 
-import com.myseotoolbox.quota4j.model.QuotaStateId;
 import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
 import com.myseotoolbox.quota4j.model.Quota;
-import com.myseotoolbox.quota4j.persistence.QuotaStatePersistence;
+import com.myseotoolbox.quota4j.metrics.QuotaMetrics;
 import com.myseotoolbox.quota4j.persistence.QuotaPersistence;
+import com.myseotoolbox.quota4j.quotamanager.AcquireResponse;
+import com.myseotoolbox.quota4j.quotamanager.QuotaManager;
 import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit;
 import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager;
 import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeState;
@@ -14,17 +16,30 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntSupplier;
 
 import static com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit.limitOf;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -39,7 +54,7 @@ public class QuotaServiceTest {
 
     TestClock testClock = new TestClock();
 
-    private QuotaStatePersistence quotaStatePersistence = new TestQuotaStatePersistence();
+    private InMemoryQuotaStatePersistence quotaStatePersistence = new InMemoryQuotaStatePersistence();
 
     @Mock
     private QuotaPersistence quotaPersistence;
@@ -49,8 +64,13 @@ public class QuotaServiceTest {
 
     @BeforeEach
     void setUp() {
-        sut = new QuotaService(quotaPersistence, quotaStatePersistence);
-        sut.registerQuotaManagerFactory(QuantityOverTimeQuotaManager.class.getName(), () -> new QuantityOverTimeQuotaManager(testClock));
+        sut = newQuotaService(QuotaServiceOptions.defaults());
+    }
+
+    private QuotaService newQuotaService(QuotaServiceOptions options) {
+        QuotaService quotaService = new QuotaService(quotaPersistence, quotaStatePersistence, options);
+        quotaService.registerQuotaManagerFactory(QuantityOverTimeQuotaManager.class.getName(), () -> new QuantityOverTimeQuotaManager(testClock));
+        return quotaService;
     }
 
 
@@ -138,6 +158,227 @@ public class QuotaServiceTest {
         assertThat(((QuantityOverTimeState) quotaStatePersistence.findById(QuotaStateId.create(OWNER_ID, QUOTA_ID)).get().currentState()).available(), is(10L));
     }
 
+    @Test
+    void readingUnchangedStateShouldNotPersist() {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .build();
+
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+        sut.getQuotaState(OWNER_ID, QUOTA_ID);
+        sut.getQuotaState(OWNER_ID, QUOTA_ID);
+
+        assertThat(quotaStatePersistence.saveCount(), is(1));
+    }
+
+    @Test
+    void declinedAcquireShouldNotPersistUnchangedState() {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .build();
+
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 10);
+        assertFalse(sut.tryAcquire(OWNER_ID, QUOTA_ID, 1).result());
+
+        assertThat(quotaStatePersistence.saveCount(), is(1));
+    }
+
+    @Test
+    void tryAcquireAllShouldReturnOneResponsePerRequestInOrder() {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .buildForBatch();
+
+        List<AcquireResponse<?>> responses = sut.tryAcquireAll(List.of(
+                AcquireRequest.of("OWNER1", QUOTA_ID, 10),
+                AcquireRequest.of("OWNER2", QUOTA_ID, 3),
+                AcquireRequest.of("OWNER1", QUOTA_ID, 1)));
+
+        assertTrue(responses.get(0).result());
+        assertTrue(responses.get(1).result());
+        assertFalse(responses.get(2).result());
+        assertThat(((QuantityOverTimeState) quotaStatePersistence.get(QuotaStateId.create("OWNER1", QUOTA_ID)).get().currentState()).available(), is(0L));
+        assertThat(((QuantityOverTimeState) quotaStatePersistence.get(QuotaStateId.create("OWNER2", QUOTA_ID)).get().currentState()).available(), is(7L));
+    }
+
+    @Test
+    void tryAcquireAllShouldLoadAndSaveWithOneRoundTrip() {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .buildForBatch();
+
+        sut.tryAcquireAll(List.of(
+                AcquireRequest.of("OWNER1", QUOTA_ID, 1),
+                AcquireRequest.of("OWNER2", QUOTA_ID, 1),
+                AcquireRequest.of("OWNER3", QUOTA_ID, 1)));
+
+        assertThat(quotaStatePersistence.findAllCount(), is(1));
+        assertThat(quotaStatePersistence.saveAllCount(), is(1));
+        assertThat(quotaStatePersistence.findCount(), is(0));
+        assertThat(quotaStatePersistence.saveCount(), is(0));
+    }
+
+    @Test
+    void tryAcquireAllShouldFailFastIfQuotaDoesNotExist() {
+        assertThrows(QuotaNotFoundException.class, () -> sut.tryAcquireAll(List.of(AcquireRequest.of(OWNER_ID, QUOTA_ID, 1))));
+    }
+
+    @Test
+    void allOrNothingShouldGrantAllQuotasTogether() {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .buildForBatch(givenExistingQuota()
+                        .forQuotaId(QUOTA_ID2)
+                        .withQuotaManager(QuantityOverTimeQuotaManager.class));
+
+        AcquireResponse<Map<String, Object>> response = sut.tryAcquireAllOrNothing(OWNER_ID, Map.of(QUOTA_ID, 4L, QUOTA_ID2, 10L));
+
+        assertTrue(response.result());
+        assertThat(((QuantityOverTimeState) response.state().get(QUOTA_ID)).available(), is(6L));
+        assertThat(((QuantityOverTimeState) response.state().get(QUOTA_ID2)).available(), is(0L));
+        assertThat(quotaStatePersistence.saveAllCount(), is(1));
+    }
+
+    @Test
+    void allOrNothingShouldChangeNothingIfOneQuotaIsDeclined() {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .buildForBatch(givenExistingQuota()
+                        .forQuotaId(QUOTA_ID2)
+                        .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                        .havingDefaultState(new QuantityOverTimeState(TEN_PER_DAY_LIMIT, 2, Instant.EPOCH)));
+
+        AcquireResponse<Map<String, Object>> response = sut.tryAcquireAllOrNothing(OWNER_ID, Map.of(QUOTA_ID, 4L, QUOTA_ID2, 3L));
+
+        assertFalse(response.result());
+        assertThat(((QuantityOverTimeState) response.state().get(QUOTA_ID)).available(), is(10L));
+        assertThat(((QuantityOverTimeState) response.state().get(QUOTA_ID2)).available(), is(2L));
+        assertThat(quotaStatePersistence.saveAllCount(), is(0));
+        assertThat(quotaStatePersistence.saveCount(), is(0));
+    }
+
+    @Test
+    void rolledBackAllOrNothingShouldRecordEveryQuotaAsDeclined() {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .buildForBatch(givenExistingQuota()
+                        .forQuotaId(QUOTA_ID2)
+                        .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                        .havingDefaultState(new QuantityOverTimeState(TEN_PER_DAY_LIMIT, 2, Instant.EPOCH)));
+        List<String> events = new ArrayList<>();
+        sut = newQuotaService(QuotaServiceOptions.defaults().withMetrics(new QuotaMetrics() {
+            @Override
+            public void acquired(String quotaId, boolean granted, long latencyNanos) {
+                events.add((granted ? "granted " : "declined ") + quotaId);
+            }
+        }));
+
+        sut.tryAcquireAllOrNothing(OWNER_ID, Map.of(QUOTA_ID, 4L, QUOTA_ID2, 3L));
+
+        assertThat(events.stream().sorted().toList(), is(List.of("declined " + QUOTA_ID, "declined " + QUOTA_ID2)));
+    }
+
+    @Test
+    void hierarchyShouldDebitEveryLevelWithOneBatch() {
+        sut = newQuotaService(QuotaServiceOptions.defaults().withOwnerHierarchy((ownerId, parentQuotaId) -> "org-of-" + ownerId));
+        givenQuotaHierarchy(5, 8);
+
+        assertTrue(sut.tryAcquireInHierarchy("user1", "user.crawls", 4).result());
+        AcquireResponse<Map<String, Object>> response = sut.tryAcquireInHierarchy("user1", "user.crawls", 1);
+
+        assertTrue(response.result());
+        assertThat(((QuantityOverTimeState) response.state().get("user.crawls")).available(), is(0L));
+        assertThat(((QuantityOverTimeState) response.state().get("org.crawls")).available(), is(3L));
+        assertThat(((QuantityOverTimeState) quotaStatePersistence.get(QuotaStateId.create("org-of-user1", "org.crawls")).get().currentState()).available(), is(3L));
+        assertThat(quotaStatePersistence.saveAllCount(), is(2));
+        assertThat(quotaStatePersistence.findAllCount(), is(2));
+    }
+
+    @Test
+    void hierarchyShouldChangeNothingIfParentIsExhausted() {
+        givenQuotaHierarchy(5, 3);
+
+        AcquireResponse<Map<String, Object>> response = sut.tryAcquireInHierarchy(OWNER_ID, "user.crawls", 4);
+
+        assertFalse(response.result());
+        assertThat(((QuantityOverTimeState) response.state().get("user.crawls")).available(), is(5L));
+        assertThat(quotaStatePersistence.saveAllCount(), is(0));
+    }
+
+    @Test
+    void hierarchyShouldRejectCycles() {
+        when(quotaPersistence.findById("a")).thenReturn(Optional.of(QuotaBuilder.createWithQuotaId("a").withParentQuotaId("b").build()));
+        when(quotaPersistence.findById("b")).thenReturn(Optional.of(QuotaBuilder.createWithQuotaId("b").withParentQuotaId("a").build()));
+
+        assertThrows(IllegalStateException.class, () -> sut.tryAcquireInHierarchy(OWNER_ID, "a", 1));
+    }
+
+    @Test
+    void shouldRetryWhenStateWasUpdatedConcurrently() {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .build();
+        quotaStatePersistence = new InMemoryQuotaStatePersistence() {
+            private boolean otherNodeAcquired = false;
+
+            @Override
+            public synchronized boolean compareAndSave(long expectedVersion, QuotaState newState) {
+                if (!otherNodeAcquired) {
+                    otherNodeAcquired = true;
+                    save(new QuotaState(newState.id(), newState.quotaManagerClassName(), new QuantityOverTimeState(TEN_PER_DAY_LIMIT, 7, Instant.EPOCH), expectedVersion + 1));
+                }
+                return super.compareAndSave(expectedVersion, newState);
+            }
+        };
+        sut = newQuotaService(QuotaServiceOptions.defaults().withConflictBackoff(Duration.ZERO));
+
+        assertTrue(sut.tryAcquire(OWNER_ID, QUOTA_ID, 1).result());
+
+        QuotaState persisted = quotaStatePersistence.get(QuotaStateId.create(OWNER_ID, QUOTA_ID)).get();
+        assertThat(((QuantityOverTimeState) persisted.currentState()).available(), is(6L));
+        assertThat(persisted.version(), is(2L));
+    }
+
+    @Test
+    void shouldGiveUpAfterTooManyConflicts() {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .build();
+        quotaStatePersistence = new InMemoryQuotaStatePersistence() {
+            @Override
+            public synchronized boolean compareAndSave(long expectedVersion, QuotaState newState) {
+                super.compareAndSave(expectedVersion, newState);
+                return false;
+            }
+        };
+        sut = newQuotaService(QuotaServiceOptions.defaults().withMaxConflictRetries(2).withConflictBackoff(Duration.ZERO));
+
+        assertThrows(ConcurrentQuotaUpdateException.class, () -> sut.tryAcquire(OWNER_ID, QUOTA_ID, 1));
+        assertThat(quotaStatePersistence.saveCount(), is(3));
+    }
+
+    @Test
+    void savedStatesShouldHaveIncreasingVersions() {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .build();
+
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+
+        assertThat(quotaStatePersistence.get(QuotaStateId.create(OWNER_ID, QUOTA_ID)).get().version(), is(2L));
+    }
+
     @Test
     void shouldFailFastIfQuotaManagerIsNotRegistered() {
         givenExistingQuota()
@@ -199,6 +440,258 @@ public class QuotaServiceTest {
         assertTrue(sut.tryAcquire(OWNER_ID, QUOTA_ID2, 1).result());
     }
 
+    @Test
+    void concurrentAcquiresShouldNeitherLoseNorDoubleCountGrants() throws Exception {
+        int available = 1000;
+        int threads = 8;
+        int attemptsPerThread = 250;
+        List<String> owners = List.of("OWNER1", "OWNER2", "OWNER3");
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .havingDefaultState(new QuantityOverTimeState(TEN_PER_DAY_LIMIT, available, Instant.EPOCH))
+                .build();
+
+        Map<String, AtomicLong> granted = new ConcurrentHashMap<>();
+        owners.forEach(owner -> granted.put(owner, new AtomicLong()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < attemptsPerThread; i++) {
+                    for (String owner : owners) {
+                        if (sut.tryAcquire(owner, QUOTA_ID, 1).result()) granted.get(owner).incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) future.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        for (String owner : owners) {
+            assertThat(granted.get(owner).get(), is((long) available));
+            QuantityOverTimeState persisted = (QuantityOverTimeState) quotaStatePersistence.findById(QuotaStateId.create(owner, QUOTA_ID)).get().currentState();
+            assertThat(persisted.available(), is(0L));
+        }
+    }
+
+    @Test
+    void shareableQuotaManagerShouldBeBuiltOncePerClassName() {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .build();
+        AtomicInteger builds = new AtomicInteger();
+        sut.registerQuotaManagerFactory(QuantityOverTimeQuotaManager.class.getName(), () -> {
+            builds.incrementAndGet();
+            return new QuantityOverTimeQuotaManager(testClock);
+        });
+
+        sut.tryAcquire("OWNER1", QUOTA_ID, 1);
+        sut.tryAcquire("OWNER2", QUOTA_ID, 1);
+        sut.tryAcquire("OWNER3", QUOTA_ID, 1);
+
+        assertThat(builds.get(), is(1));
+    }
+
+    @Test
+    void perKeyQuotaManagersShouldBeEvictedWhenCacheIsFull() {
+        sut = new QuotaService(quotaPersistence, quotaStatePersistence, QuotaServiceOptions.defaults().withPerKeyQuotaManagersCacheSize(2));
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .build();
+        AtomicInteger builds = new AtomicInteger();
+        sut.registerQuotaManagerFactory(QuantityOverTimeQuotaManager.class.getName(), new QuotaManagerFactory() {
+            @Override
+            public QuotaManager<?> build() {
+                builds.incrementAndGet();
+                return new QuantityOverTimeQuotaManager(testClock);
+            }
+
+            @Override
+            public boolean isShareable() {
+                return false;
+            }
+        });
+
+        sut.tryAcquire("OWNER1", QUOTA_ID, 1);
+        sut.tryAcquire("OWNER2", QUOTA_ID, 1);
+        sut.tryAcquire("OWNER2", QUOTA_ID, 1);
+        assertThat(builds.get(), is(2));
+
+        sut.tryAcquire("OWNER3", QUOTA_ID, 1);
+        sut.tryAcquire("OWNER1", QUOTA_ID, 1);
+        assertThat(builds.get(), is(4));
+    }
+
+    @Test
+    void buildingPerKeyQuotaManagerShouldNotBlockOtherKeys() throws Exception {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .build();
+        AtomicInteger builds = new AtomicInteger();
+        CountDownLatch firstBuildStarted = new CountDownLatch(1);
+        CountDownLatch finishFirstBuild = new CountDownLatch(1);
+        sut.registerQuotaManagerFactory(QuantityOverTimeQuotaManager.class.getName(), new QuotaManagerFactory() {
+            @Override
+            public QuotaManager<?> build() {
+                if (builds.getAndIncrement() == 0) {
+                    firstBuildStarted.countDown();
+                    try {
+                        finishFirstBuild.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return new QuantityOverTimeQuotaManager(testClock);
+            }
+
+            @Override
+            public boolean isShareable() {
+                return false;
+            }
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        Future<AcquireResponse<?>> first = executor.submit(() -> sut.tryAcquire("OWNER1", QUOTA_ID, 1));
+        firstBuildStarted.await();
+        assertTrue(sut.tryAcquire("OWNER2", QUOTA_ID, 1).result());
+        finishFirstBuild.countDown();
+
+        assertTrue(first.get(30, TimeUnit.SECONDS).result());
+        executor.shutdown();
+    }
+
+    @Test
+    void shouldRecordMetrics() {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .havingDefaultState(new QuantityOverTimeState(TEN_PER_DAY_LIMIT, 1, Instant.EPOCH))
+                .build();
+        List<String> events = new ArrayList<>();
+        AtomicReference<IntSupplier> cacheSize = new AtomicReference<>();
+        sut = newQuotaService(QuotaServiceOptions.defaults().withMetrics(new QuotaMetrics() {
+            @Override
+            public void acquired(String quotaId, boolean granted, long latencyNanos) {
+                events.add((granted ? "granted " : "declined ") + quotaId);
+            }
+
+            @Override
+            public void stateSaved(long latencyNanos) {
+                events.add("saved");
+            }
+
+            @Override
+            public void refilled(String quotaId) {
+                events.add("refilled " + quotaId);
+            }
+
+            @Override
+            public void bindQuotaManagersCacheSize(IntSupplier size) {
+                cacheSize.set(size);
+            }
+        }));
+
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+        testClock.changeTime(cur -> cur.plus(1, ChronoUnit.DAYS));
+        sut.getQuotaState(OWNER_ID, QUOTA_ID);
+
+        assertThat(events, is(List.of("saved", "granted " + QUOTA_ID, "declined " + QUOTA_ID, "saved", "refilled " + QUOTA_ID)));
+        assertThat(cacheSize.get().getAsInt(), is(1));
+    }
+
+    @Test
+    void sweepShouldIncrementallyDeleteIdleStates() {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .build();
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .buildForBatch();
+
+        sut.tryAcquire("OWNER1", QUOTA_ID, 1);
+        testClock.changeTime(cur -> cur.plus(1, ChronoUnit.DAYS));
+        sut.tryAcquire("OWNER2", QUOTA_ID, 1);
+
+        assertThat(sut.sweepIdleStates(1), is(1));
+        assertThat(sut.sweepIdleStates(1), is(0));
+
+        assertThat(quotaStatePersistence.get(QuotaStateId.create("OWNER1", QUOTA_ID)), is(Optional.empty()));
+        assertTrue(quotaStatePersistence.get(QuotaStateId.create("OWNER2", QUOTA_ID)).isPresent());
+        assertTrue(sut.tryAcquire("OWNER1", QUOTA_ID, 10).result());
+    }
+
+    @Test
+    void declinedAcquireShouldTellWhenToRetry() {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .build();
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 10);
+        testClock.changeTime(cur -> cur.plus(1, ChronoUnit.HOURS));
+
+        AcquireAttempt attempt = sut.tryAcquireWithRetryHint(OWNER_ID, QUOTA_ID, 1);
+
+        assertFalse(attempt.granted());
+        assertThat(attempt.retryAfter(), is(Optional.of(Duration.ofHours(23))));
+        assertThat(sut.tryAcquireWithRetryHint(OWNER_ID, QUOTA_ID, 11).retryAfter(), is(Optional.empty()));
+    }
+
+    @Test
+    void acquireShouldWaitUntilRefilled() throws InterruptedException {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .havingDefaultState(new QuantityOverTimeState(limitOf(1, Duration.ofMillis(50)), 1, Instant.EPOCH))
+                .build();
+        sut.registerQuotaManagerFactory(QuantityOverTimeQuotaManager.class.getName(), () -> new QuantityOverTimeQuotaManager(Clock.systemUTC()));
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+
+        assertFalse(sut.acquire(OWNER_ID, QUOTA_ID, 1, Duration.ZERO).result());
+        assertTrue(sut.acquire(OWNER_ID, QUOTA_ID, 1, Duration.ofSeconds(5)).result());
+    }
+
+    @Test
+    void savedStatesShouldBePublishedToTheFeed() {
+        givenExistingQuota()
+                .forQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class)
+                .havingDefaultState(new QuantityOverTimeState(TEN_PER_DAY_LIMIT, 1, Instant.EPOCH))
+                .build();
+        List<QuotaState> published = new ArrayList<>();
+        sut = newQuotaService(QuotaServiceOptions.defaults().withStateChangeFeed(published::add));
+
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1);
+
+        assertThat(published, is(List.of(quotaStatePersistence.get(QuotaStateId.create(OWNER_ID, QUOTA_ID)).get())));
+    }
+
+    private void givenQuotaHierarchy(long userAvailable, long orgAvailable) {
+        Quota user = QuotaBuilder.createWithQuotaId("user.crawls")
+                .withQuotaManager(QuantityOverTimeQuotaManager.class.getName())
+                .defaultState(new QuantityOverTimeState(TEN_PER_DAY_LIMIT, userAvailable, Instant.EPOCH))
+                .withParentQuotaId("org.crawls")
+                .build();
+        Quota org = QuotaBuilder.createWithQuotaId("org.crawls")
+                .withQuotaManager(QuantityOverTimeQuotaManager.class.getName())
+                .defaultState(new QuantityOverTimeState(TEN_PER_DAY_LIMIT, orgAvailable, Instant.EPOCH))
+                .build();
+        when(quotaPersistence.findById("user.crawls")).thenReturn(Optional.of(user));
+        when(quotaPersistence.findById("org.crawls")).thenReturn(Optional.of(org));
+        when(quotaPersistence.findAllById(any())).thenReturn(List.of(user, org));
+    }
+
     private QuotaTestBuilder givenExistingQuota() {
         return new QuotaTestBuilder(quotaPersistence);
     }
@@ -229,12 +722,23 @@ public class QuotaServiceTest {
         }
 
         public void build() {
-            Quota quota = QuotaBuilder
+            when(quotaPersistenceMock.findById(quotaId)).thenReturn(Optional.of(quota()));
+        }
+
+        public void buildForBatch() {
+            when(quotaPersistenceMock.findAllById(any())).thenReturn(List.of(quota()));
+        }
+
+        public void buildForBatch(QuotaTestBuilder other) {
+            when(quotaPersistenceMock.findAllById(any())).thenReturn(List.of(quota(), other.quota()));
+        }
+
+        private Quota quota() {
+            return QuotaBuilder
                     .createWithQuotaId(quotaId)
                     .withQuotaManager(quotaManagerClassName)
                     .defaultState(defaultState)
                     .build();
-            when(quotaPersistenceMock.findById(quotaId)).thenReturn(Optional.of(quota));
         }
 
         public QuotaTestBuilder withQuotaManagerClassName(String className) {
@@ -243,20 +747,4 @@ public class QuotaServiceTest {
         }
     }
 
-    private static class TestQuotaStatePersistence implements QuotaStatePersistence {
-
-
-        private final Map<QuotaStateId, QuotaState> states = new HashMap<>();
-
-        @Override
-        public Optional<QuotaState> findById(QuotaStateId quotaStateId) {
-            return Optional.ofNullable(states.get(quotaStateId));
-        }
-
-        @Override
-        public QuotaState save(QuotaState quotaState) {
-            return states.put(quotaState.id(), quotaState);
-        }
-    }
-
 }
\ No newline at end of file
@@ -0,0 +1,301 @@
+package com.myseotoolbox.quota4j;
+
+import com.myseotoolbox.quota4j.metrics.QuotaMetrics;
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.persistence.QuotaPersistence;
+import com.myseotoolbox.quota4j.quotamanager.AcquireResponse;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit.limitOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ShardedQuotaEngineTest {
+
+    private static final String QUOTA_ID = "crawler.maxCrawlsPerDay";
+    private static final String OWNER_ID = "owner123@localhost";
+
+    private final TestClock testClock = new TestClock();
+    private final InMemoryQuotaStatePersistence quotaStatePersistence = new InMemoryQuotaStatePersistence();
+
+    @Mock
+    private QuotaPersistence quotaPersistence;
+
+    ShardedQuotaEngine sut;
+
+    @BeforeEach
+    void setUp() {
+        sut = new ShardedQuotaEngine(quotaPersistence, quotaStatePersistence, ShardedQuotaEngineOptions.defaults().withShards(4));
+        sut.registerQuotaManagerFactory(QuantityOverTimeQuotaManager.class.getName(), () -> new QuantityOverTimeQuotaManager(testClock));
+    }
+
+    @AfterEach
+    void tearDown() {
+        sut.close();
+    }
+
+    @Test
+    void shouldAcquireAndPersist() throws Exception {
+        givenQuotaWithAvailable(10);
+
+        assertTrue(sut.tryAcquire(OWNER_ID, QUOTA_ID, 10).get().result());
+        assertFalse(sut.tryAcquire(OWNER_ID, QUOTA_ID, 1).get().result());
+
+        QuantityOverTimeState persisted = (QuantityOverTimeState) quotaStatePersistence.get(QuotaStateId.create(OWNER_ID, QUOTA_ID)).get().currentState();
+        assertThat(persisted.available(), is(0L));
+    }
+
+    @Test
+    void concurrentAcquiresShouldNotOverGrant() throws Exception {
+        givenQuotaWithAvailable(100);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<CompletableFuture<AcquireResponse<?>>> responses = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            String ownerId = "owner" + (i % 3);
+            responses.add(CompletableFuture.supplyAsync(() -> sut.tryAcquire(ownerId, QUOTA_ID, 1), executor).thenCompose(response -> response));
+        }
+        long granted = 0;
+        for (CompletableFuture<AcquireResponse<?>> response : responses) {
+            if (response.get().result()) granted++;
+        }
+        executor.shutdownNow();
+
+        assertThat(granted, is(300L));
+        for (int i = 0; i < 3; i++) {
+            QuantityOverTimeState persisted = (QuantityOverTimeState) quotaStatePersistence.get(QuotaStateId.create("owner" + i, QUOTA_ID)).get().currentState();
+            assertThat(persisted.available(), is(0L));
+        }
+        assertFalse(sut.tryAcquire("owner0", QUOTA_ID, 1).get().result());
+    }
+
+    @Test
+    void shouldSaveEachBatchWithOneRoundTrip() throws Exception {
+        givenQuotaWithAvailable(100);
+
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1).get();
+        int saves = quotaStatePersistence.saveAllCount();
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1).get();
+
+        assertThat(quotaStatePersistence.saveAllCount(), is(saves + 1));
+        assertThat(quotaStatePersistence.saveCount(), is(0));
+        assertThat(quotaStatePersistence.findAllCount(), is(1));
+    }
+
+    @Test
+    void shouldFailWithQuotaNotFound() {
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> sut.tryAcquire(OWNER_ID, QUOTA_ID, 1).get());
+        assertTrue(exception.getCause() instanceof QuotaNotFoundException);
+    }
+
+    @Test
+    void shouldRetryOnStatesChangedByOtherNodes() throws Exception {
+        givenQuotaWithAvailable(10);
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 1).get();
+        QuotaStateId quotaStateId = QuotaStateId.create(OWNER_ID, QUOTA_ID);
+        quotaStatePersistence.save(quotaStatePersistence.get(quotaStateId).get().withNextVersion());
+
+        assertTrue(sut.tryAcquire(OWNER_ID, QUOTA_ID, 1).get().result());
+
+        assertThat(availableOf(quotaStatePersistence, OWNER_ID), is(8L));
+    }
+
+    @Test
+    void onlyRequestsOnConflictingStatesShouldBeRetried() throws Exception {
+        givenQuotaWithAvailable(10);
+        GatedQuotaStatePersistence persistence = new GatedQuotaStatePersistence();
+        AtomicInteger conflicts = new AtomicInteger();
+        restartWith(persistence, ShardedQuotaEngineOptions.defaults().withShards(1).withMetrics(new QuotaMetrics() {
+            @Override
+            public void conflict(String quotaId) {
+                conflicts.incrementAndGet();
+            }
+        }));
+        sut.tryAcquire("owner1", QUOTA_ID, 1).get();
+        sut.tryAcquire("owner2", QUOTA_ID, 1).get();
+        QuotaStateId changedElsewhere = QuotaStateId.create("owner1", QUOTA_ID);
+        persistence.save(persistence.get(changedElsewhere).get().withNextVersion());
+
+        CompletableFuture<AcquireResponse<?>> gate = persistence.holdingShard(() -> sut.tryAcquire("gate", QUOTA_ID, 1));
+        CompletableFuture<AcquireResponse<?>> first = sut.tryAcquire("owner1", QUOTA_ID, 1);
+        CompletableFuture<AcquireResponse<?>> second = sut.tryAcquire("owner2", QUOTA_ID, 1);
+        persistence.open();
+
+        assertTrue(gate.get(5, TimeUnit.SECONDS).result());
+        assertTrue(first.get(5, TimeUnit.SECONDS).result());
+        assertTrue(second.get(5, TimeUnit.SECONDS).result());
+        assertThat(availableOf(persistence, "owner1"), is(8L));
+        assertThat(availableOf(persistence, "owner2"), is(8L));
+        assertThat(conflicts.get(), is(1));
+    }
+
+    @Test
+    void shouldGiveUpAfterMaxConflictRetries() {
+        givenQuotaWithAvailable(10);
+        AtomicInteger conflicts = new AtomicInteger();
+        restartWith(new InMemoryQuotaStatePersistence() {
+            @Override
+            public boolean compareAndSaveAll(Collection<QuotaState> newStates) {
+                return false;
+            }
+        }, ShardedQuotaEngineOptions.defaults().withMaxConflictRetries(2).withMetrics(new QuotaMetrics() {
+            @Override
+            public void conflict(String quotaId) {
+                conflicts.incrementAndGet();
+            }
+        }));
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> sut.tryAcquire(OWNER_ID, QUOTA_ID, 1).get(5, TimeUnit.SECONDS));
+
+        assertTrue(exception.getCause() instanceof ConcurrentQuotaUpdateException);
+        assertThat(conflicts.get(), is(3));
+    }
+
+    @Test
+    void statesOfTheBatchShouldNotBeEvictedByTheOnesItLoads() throws Exception {
+        givenQuotaWithAvailable(10);
+        GatedQuotaStatePersistence persistence = new GatedQuotaStatePersistence();
+        restartWith(persistence, ShardedQuotaEngineOptions.defaults().withShards(1).withMaxStatesPerShard(3).withMaxBatchSize(2));
+        sut.tryAcquire("owner1", QUOTA_ID, 1).get();
+        sut.tryAcquire("owner2", QUOTA_ID, 1).get();
+
+        CompletableFuture<AcquireResponse<?>> gate = persistence.holdingShard(() -> sut.tryAcquire("gate", QUOTA_ID, 1));
+        CompletableFuture<AcquireResponse<?>> owned = sut.tryAcquire("owner1", QUOTA_ID, 1);
+        CompletableFuture<AcquireResponse<?>> loaded = sut.tryAcquire("owner3", QUOTA_ID, 1);
+        persistence.open();
+
+        assertTrue(gate.get(5, TimeUnit.SECONDS).result());
+        assertTrue(owned.get(5, TimeUnit.SECONDS).result());
+        assertTrue(loaded.get(5, TimeUnit.SECONDS).result());
+        assertThat(availableOf(persistence, "owner1"), is(8L));
+    }
+
+    @Test
+    void shouldPublishSavedStatesAndRecordMetrics() throws Exception {
+        givenQuotaWithAvailable(10);
+        List<QuotaState> published = new CopyOnWriteArrayList<>();
+        List<Boolean> results = new CopyOnWriteArrayList<>();
+        restartWith(quotaStatePersistence, ShardedQuotaEngineOptions.defaults().withStateChangeFeed(published::add).withMetrics(new QuotaMetrics() {
+            @Override
+            public void acquired(String quotaId, boolean granted, long latencyNanos) {
+                results.add(granted);
+            }
+        }));
+
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 4).get();
+        sut.tryAcquire(OWNER_ID, QUOTA_ID, 7).get();
+
+        assertThat(results, is(List.of(true, false)));
+        assertThat(published.size(), is(1));
+        assertThat(((QuantityOverTimeState) published.get(0).currentState()).available(), is(6L));
+    }
+
+    @Test
+    void requestsRacingCloseShouldAllComplete() throws Exception {
+        givenQuotaWithAvailable(1_000_000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int round = 0; round < 200; round++) {
+            restartWith(quotaStatePersistence, ShardedQuotaEngineOptions.defaults().withShards(2));
+            ShardedQuotaEngine engine = sut;
+            CountDownLatch started = new CountDownLatch(4);
+            List<CompletableFuture<List<CompletableFuture<AcquireResponse<?>>>>> submitters = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                String ownerId = "owner" + i;
+                submitters.add(CompletableFuture.supplyAsync(() -> {
+                    List<CompletableFuture<AcquireResponse<?>>> responses = new ArrayList<>();
+                    started.countDown();
+                    for (int j = 0; j < 100; j++) {
+                        responses.add(engine.tryAcquire(ownerId, QUOTA_ID, 1));
+                    }
+                    return responses;
+                }, executor));
+            }
+            started.await();
+            engine.close();
+
+            for (CompletableFuture<List<CompletableFuture<AcquireResponse<?>>>> submitter : submitters) {
+                for (CompletableFuture<AcquireResponse<?>> response : submitter.get(5, TimeUnit.SECONDS)) {
+                    try {
+                        assertTrue(response.get(5, TimeUnit.SECONDS).result());
+                    } catch (ExecutionException e) {
+                        assertTrue(e.getCause() instanceof IllegalStateException);
+                    }
+                }
+            }
+        }
+        executor.shutdownNow();
+    }
+
+    private void restartWith(InMemoryQuotaStatePersistence persistence, ShardedQuotaEngineOptions options) {
+        sut.close();
+        sut = new ShardedQuotaEngine(quotaPersistence, persistence, options);
+        sut.registerQuotaManagerFactory(QuantityOverTimeQuotaManager.class.getName(), () -> new QuantityOverTimeQuotaManager(testClock));
+    }
+
+    private static long availableOf(InMemoryQuotaStatePersistence persistence, String ownerId) {
+        return ((QuantityOverTimeState) persistence.get(QuotaStateId.create(ownerId, QUOTA_ID)).get().currentState()).available();
+    }
+
+    private void givenQuotaWithAvailable(long available) {
+        QuantityOverTimeState defaultState = new QuantityOverTimeState(limitOf(available, Duration.ofDays(1)), available, Instant.EPOCH);
+        when(quotaPersistence.findAllById(any())).thenReturn(List.of(QuotaBuilder.createWithQuotaId(QUOTA_ID)
+                .withQuotaManager(QuantityOverTimeQuotaManager.class.getName())
+                .defaultState(defaultState)
+                .build()));
+    }
+
+    /**
+     * Holds the shard loading the state of the "gate" owner, so that the requests submitted meanwhile form the next batch
+     */
+    private static class GatedQuotaStatePersistence extends InMemoryQuotaStatePersistence {
+        private final CountDownLatch loading = new CountDownLatch(1);
+        private final CompletableFuture<Void> opened = new CompletableFuture<>();
+
+        CompletableFuture<AcquireResponse<?>> holdingShard(Supplier<CompletableFuture<AcquireResponse<?>>> request) throws InterruptedException {
+            CompletableFuture<AcquireResponse<?>> response = request.get();
+            loading.await();
+            return response;
+        }
+
+        void open() {
+            opened.complete(null);
+        }
+
+        @Override
+        public List<QuotaState> findAllById(Collection<QuotaStateId> quotaStateIds) {
+            if (quotaStateIds.stream().anyMatch(quotaStateId -> quotaStateId.ownerId().equals("gate"))) {
+                loading.countDown();
+                opened.join();
+            }
+            return super.findAllById(quotaStateIds);
+        }
+    }
+}
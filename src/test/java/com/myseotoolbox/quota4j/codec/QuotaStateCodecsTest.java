@@ -0,0 +1,98 @@
+package com.myseotoolbox.quota4j.codec;
+
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.quotamanager.gcra.GcraQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.gcra.GcraState;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeState;
+import com.myseotoolbox.quota4j.quotamanager.slidingwindow.SlidingWindowLimit;
+import com.myseotoolbox.quota4j.quotamanager.slidingwindow.SlidingWindowLogQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.slidingwindow.SlidingWindowState;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.time.Duration;
+import java.time.Instant;
+
+import static com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit.limitOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class QuotaStateCodecsTest {
+
+    private static final QuotaStateId ID = QuotaStateId.create("owner", "quota");
+
+    private final QuotaStateCodecs sut = QuotaStateCodecs.defaults();
+
+    @Test
+    void shouldRoundTripQuantityOverTimeState() {
+        QuotaState quotaState = new QuotaState(ID, QuantityOverTimeQuotaManager.class.getName(),
+                new QuantityOverTimeState(limitOf(10, Duration.ofMillis(1500)), 7, Instant.ofEpochSecond(1_700_000_000, 123)), 42);
+
+        assertThat(sut.decode(sut.encode(quotaState)), is(quotaState));
+    }
+
+    @Test
+    void shouldRoundTripGcraState() {
+        QuotaState quotaState = new QuotaState(ID, GcraQuotaManager.class.getName(), new GcraState(limitOf(10, Duration.ofMinutes(1)), 123456789L), 3);
+
+        assertThat(sut.decode(sut.encode(quotaState)), is(quotaState));
+    }
+
+    @Test
+    void shouldFallBackToJavaSerialization() {
+        QuotaState quotaState = new QuotaState(ID, SlidingWindowLogQuotaManager.class.getName(),
+                SlidingWindowState.empty(SlidingWindowLimit.limitOf(10, Duration.ofMinutes(1), 6)), 1);
+
+        assertThat(sut.decode(sut.encode(quotaState)), is(quotaState));
+    }
+
+    @Test
+    void fallbackShouldSerializeTheStateOnce() {
+        CountingState state = new CountingState(5);
+        QuotaState quotaState = new QuotaState(ID, "com.example.UnknownQuotaManager", state, 1);
+
+        byte[] encoded = sut.encode(quotaState);
+
+        assertThat(state.writes, is(1));
+        assertThat(((CountingState) sut.decode(encoded).currentState()).value, is(5));
+    }
+
+    @Test
+    void registeredCodecShouldBeMuchSmallerThanJavaSerialization() {
+        QuotaState quotaState = new QuotaState(ID, QuantityOverTimeQuotaManager.class.getName(),
+                new QuantityOverTimeState(limitOf(10, Duration.ofMinutes(1)), 7, Instant.EPOCH));
+
+        int withCodec = sut.encode(quotaState).length;
+        int withoutCodec = new QuotaStateCodecs().encode(quotaState).length;
+
+        assertThat(withCodec * 2 < withoutCodec, is(true));
+    }
+
+    @Test
+    void decodingWithoutRegisteredCodecShouldFail() {
+        QuotaState quotaState = new QuotaState(ID, GcraQuotaManager.class.getName(), GcraState.full(limitOf(10, Duration.ofMinutes(1))));
+
+        byte[] encoded = sut.encode(quotaState);
+
+        assertThrows(IllegalStateException.class, () -> new QuotaStateCodecs().decode(encoded));
+    }
+
+    private static class CountingState implements Serializable {
+        private final int value;
+        private transient int writes;
+
+        CountingState(int value) {
+            this.value = value;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            writes++;
+            out.defaultWriteObject();
+        }
+    }
+}
\ No newline at end of file
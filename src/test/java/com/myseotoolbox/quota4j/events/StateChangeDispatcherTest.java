@@ -0,0 +1,176 @@
+package com.myseotoolbox.quota4j.events;
+
+import com.myseotoolbox.quota4j.metrics.QuotaMetrics;
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.persistence.QuotaManagerStateChangeListener;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class StateChangeDispatcherTest {
+
+    private static final QuotaStateId ID1 = QuotaStateId.create("owner1", "quota");
+    private static final QuotaStateId ID2 = QuotaStateId.create("owner2", "quota");
+
+    private final List<List<QuotaState>> batches = new ArrayList<>();
+    private final CountDownLatch listenerBlocked = new CountDownLatch(1);
+    private final CountDownLatch unblockListener = new CountDownLatch(1);
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final QuotaMetrics metrics = new QuotaMetrics() {
+        @Override
+        public void stateChangesDropped(int count) {
+            dropped.addAndGet(count);
+        }
+    };
+
+    @Test
+    void shouldDeliverAllChangesInOrderOnClose() {
+        StateChangeDispatcher sut = new StateChangeDispatcher(recordingListener(), StateChangeDispatcherOptions.defaults().withMaxBatchSize(2));
+        for (int i = 0; i < 5; i++) {
+            sut.publish(stateOf(ID1, i));
+        }
+
+        sut.close();
+
+        List<QuotaState> delivered = batches.stream().flatMap(List::stream).toList();
+        assertThat(delivered, is(List.of(stateOf(ID1, 0), stateOf(ID1, 1), stateOf(ID1, 2), stateOf(ID1, 3), stateOf(ID1, 4))));
+        assertThat(batches.stream().allMatch(batch -> batch.size() <= 2), is(true));
+    }
+
+    @Test
+    void dropPolicyShouldDiscardChangesWhenFull() throws InterruptedException {
+        StateChangeDispatcher sut = new StateChangeDispatcher(blockingListener(), StateChangeDispatcherOptions.defaults()
+                .withCapacity(2).withMaxBatchSize(1).withPolicy(BackpressurePolicy.DROP), metrics);
+        sut.publish(stateOf(ID1, 0));
+        listenerBlocked.await();
+
+        for (int i = 1; i <= 4; i++) {
+            sut.publish(stateOf(ID1, i));
+        }
+        unblockListener.countDown();
+        sut.close();
+
+        assertThat(dropped.get(), is(2));
+        assertThat(batches.stream().flatMap(List::stream).toList(), is(List.of(stateOf(ID1, 0), stateOf(ID1, 1), stateOf(ID1, 2))));
+    }
+
+    @Test
+    void coalescePolicyShouldKeepLatestChangePerState() throws InterruptedException {
+        StateChangeDispatcher sut = new StateChangeDispatcher(blockingListener(), StateChangeDispatcherOptions.defaults()
+                .withCapacity(2).withMaxBatchSize(10).withPolicy(BackpressurePolicy.COALESCE), metrics);
+        sut.publish(stateOf(ID1, 0));
+        listenerBlocked.await();
+
+        for (int i = 1; i <= 4; i++) {
+            sut.publish(stateOf(ID1, i));
+            sut.publish(stateOf(ID2, i));
+        }
+        unblockListener.countDown();
+        sut.close();
+
+        assertThat(dropped.get(), is(0));
+        assertThat(batches.stream().flatMap(List::stream).toList(), is(List.of(stateOf(ID1, 0), stateOf(ID1, 4), stateOf(ID2, 4))));
+    }
+
+    @Test
+    void blockPolicyShouldNotLoseChanges() {
+        StateChangeDispatcher sut = new StateChangeDispatcher(recordingListener(), StateChangeDispatcherOptions.defaults()
+                .withCapacity(4).withPolicy(BackpressurePolicy.BLOCK), metrics);
+        for (int i = 0; i < 1000; i++) {
+            sut.publish(stateOf(ID1, i));
+        }
+
+        sut.close();
+
+        assertThat(batches.stream().mapToInt(List::size).sum(), is(1000));
+        assertThat(dropped.get(), is(0));
+    }
+
+    private QuotaManagerStateChangeListener recordingListener() {
+        return new QuotaManagerStateChangeListener() {
+            @Override
+            public void stateChanged(Object state) {
+            }
+
+            @Override
+            public void statesChanged(List<QuotaState> states) {
+                batches.add(List.copyOf(states));
+            }
+        };
+    }
+
+    private QuotaManagerStateChangeListener blockingListener() {
+        return new QuotaManagerStateChangeListener() {
+            @Override
+            public void stateChanged(Object state) {
+            }
+
+            @Override
+            public void statesChanged(List<QuotaState> states) {
+                listenerBlocked.countDown();
+                try {
+                    unblockListener.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                batches.add(List.copyOf(states));
+            }
+        };
+    }
+
+    @Test
+    void changesPublishedAfterCloseShouldBeCountedAsDropped() {
+        StateChangeDispatcher sut = new StateChangeDispatcher(recordingListener(), StateChangeDispatcherOptions.defaults(), metrics);
+        sut.close();
+
+        sut.publish(stateOf(ID1, 0));
+
+        assertThat(dropped.get(), is(1));
+        assertThat(batches.isEmpty(), is(true));
+    }
+
+    @Test
+    void changesPublishedWhileClosingShouldBeDeliveredOrDropped() throws InterruptedException {
+        AtomicInteger delivered = new AtomicInteger();
+        QuotaManagerStateChangeListener countingListener = new QuotaManagerStateChangeListener() {
+            @Override
+            public void stateChanged(Object state) {
+            }
+
+            @Override
+            public void statesChanged(List<QuotaState> states) {
+                delivered.addAndGet(states.size());
+            }
+        };
+        StateChangeDispatcher sut = new StateChangeDispatcher(countingListener, StateChangeDispatcherOptions.defaults()
+                .withCapacity(1 << 16).withPolicy(BackpressurePolicy.DROP), metrics);
+        List<Thread> publishers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread publisher = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    sut.publish(stateOf(ID2, i));
+                }
+            });
+            publishers.add(publisher);
+            publisher.start();
+        }
+
+        sut.close();
+        for (Thread publisher : publishers) {
+            publisher.join();
+        }
+
+        assertThat(delivered.get() + dropped.get(), is(4 * 5000));
+    }
+
+    private static QuotaState stateOf(QuotaStateId id, long value) {
+        return new QuotaState(id, "manager", value, value);
+    }
+}
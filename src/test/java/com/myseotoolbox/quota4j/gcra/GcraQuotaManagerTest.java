@@ -0,0 +1,124 @@
+package com.myseotoolbox.quota4j.gcra;
+
+import com.myseotoolbox.quota4j.TestClock;
+import com.myseotoolbox.quota4j.quotamanager.gcra.GcraQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.gcra.GcraState;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GcraQuotaManagerTest {
+
+    private static final QuantityOverTimeLimit TEN_PER_TEN_SECONDS = new QuantityOverTimeLimit(10, Duration.ofSeconds(10));
+
+    private final TestClock testClock = new TestClock();
+    private GcraState state;
+
+    GcraQuotaManager sut;
+
+    @BeforeEach
+    void setUp() {
+        sut = new GcraQuotaManager(testClock);
+        testClock.changeTime(instant -> instant.plusSeconds(1000));
+        state = GcraState.full(TEN_PER_TEN_SECONDS);
+    }
+
+    @Test
+    void shouldAllowFullBurstWhenIdle() {
+        assertTrue(sut.tryAcquire(state, 10).result());
+    }
+
+    @Test
+    void shouldNotAllowToExceedQuota() {
+        assertFalse(sut.tryAcquire(state, 11).result());
+    }
+
+    @Test
+    void shouldDeclineHugeQuantitiesWithoutOverflowing() {
+        assertFalse(sut.tryAcquire(state, Long.MAX_VALUE).result());
+        assertFalse(sut.tryAcquire(state, 1_000_000_000_000L).result());
+        assertThat(sut.tryAcquire(state, Long.MAX_VALUE).state(), sameInstance(state));
+        assertThat(sut.nanosUntilAvailable(state, Long.MAX_VALUE), is(GcraQuotaManager.NEVER));
+    }
+
+    @Test
+    void zeroLimitShouldGrantNothing() {
+        GcraState zero = GcraState.full(new QuantityOverTimeLimit(0, Duration.ofSeconds(10)));
+
+        assertFalse(sut.tryAcquire(zero, 1).result());
+        assertThat(sut.nanosUntilAvailable(zero, 1), is(GcraQuotaManager.NEVER));
+    }
+
+    @Test
+    void hugeLimitsShouldNotOverflow() {
+        GcraState huge = GcraState.full(new QuantityOverTimeLimit(Long.MAX_VALUE, Duration.ofSeconds(10)));
+
+        GcraState acquired = sut.tryAcquire(huge, Long.MAX_VALUE).state();
+        assertThat(sut.nanosUntilAvailable(acquired, 1), is(1L));
+        assertFalse(sut.tryAcquire(acquired, Long.MAX_VALUE / 2).result());
+        assertTrue(sut.tryAcquire(huge, Long.MAX_VALUE / 3).result());
+    }
+
+    @Test
+    void shouldRefillProportionallyToElapsedTime() {
+        state = sut.tryAcquire(state, 10).state();
+        assertFalse(sut.tryAcquire(state, 1).result());
+
+        testClock.changeTime(instant -> instant.plusSeconds(3));
+
+        assertThat(sut.available(state), is(3L));
+        assertTrue(sut.tryAcquire(state, 3).result());
+        assertFalse(sut.tryAcquire(sut.tryAcquire(state, 3).state(), 1).result());
+    }
+
+    @Test
+    void shouldNotAccumulateMoreThanTheLimit() {
+        state = sut.tryAcquire(state, 5).state();
+
+        testClock.changeTime(instant -> instant.plusSeconds(100));
+
+        assertThat(sut.available(state), is(10L));
+        assertFalse(sut.tryAcquire(state, 11).result());
+    }
+
+    @Test
+    void declineShouldLeaveStateUnchanged() {
+        state = sut.tryAcquire(state, 10).state();
+
+        assertThat(sut.tryAcquire(state, 1).state(), sameInstance(state));
+    }
+
+    @Test
+    void currentStateShouldNotChangeWithTime() {
+        state = sut.tryAcquire(state, 4).state();
+        testClock.changeTime(instant -> instant.plusSeconds(100));
+
+        assertThat(sut.getCurrentState(state), sameInstance(state));
+    }
+
+    @Test
+    void shouldBeIdleOnceFullAgain() {
+        state = sut.tryAcquire(state, 4).state();
+        assertFalse(sut.isIdle(state, GcraState.full(TEN_PER_TEN_SECONDS)));
+
+        testClock.changeTime(instant -> instant.plusSeconds(4));
+
+        assertTrue(sut.isIdle(state, GcraState.full(TEN_PER_TEN_SECONDS)));
+    }
+
+    @Test
+    void shouldEstimateWhenUnitsComeBack() {
+        state = sut.tryAcquire(state, 10).state();
+
+        assertThat(sut.nanosUntilAvailable(state, 3), is(Duration.ofSeconds(3).toNanos()));
+        assertThat(sut.nanosUntilAvailable(state, 11), is(GcraQuotaManager.NEVER));
+    }
+}
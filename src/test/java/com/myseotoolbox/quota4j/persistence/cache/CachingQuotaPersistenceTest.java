@@ -0,0 +1,164 @@
+package com.myseotoolbox.quota4j.persistence.cache;
+
+import com.myseotoolbox.quota4j.TestClock;
+import com.myseotoolbox.quota4j.model.Quota;
+import com.myseotoolbox.quota4j.persistence.QuotaPersistence;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class CachingQuotaPersistenceTest {
+
+    private static final Quota QUOTA1 = new Quota("quota1", QuantityOverTimeQuotaManager.class.getName(), "state1");
+    private static final Quota QUOTA2 = new Quota("quota2", QuantityOverTimeQuotaManager.class.getName(), "state2");
+    private static final Duration TTL = Duration.ofMinutes(5);
+
+    private final TestClock testClock = new TestClock();
+    @Mock
+    private QuotaPersistence delegate;
+    private CachingQuotaPersistence sut;
+
+    @BeforeEach
+    void setUp() {
+        sut = new CachingQuotaPersistence(delegate, TTL, testClock);
+    }
+
+    @Test
+    void shouldLoadOnceUntilExpired() {
+        when(delegate.findById("quota1")).thenReturn(Optional.of(QUOTA1));
+
+        sut.findById("quota1");
+        assertThat(sut.findById("quota1"), is(Optional.of(QUOTA1)));
+        verify(delegate, times(1)).findById("quota1");
+
+        testClock.changeTime(instant -> instant.plus(TTL));
+        sut.findById("quota1");
+        verify(delegate, times(2)).findById("quota1");
+    }
+
+    @Test
+    void invalidateShouldForceReload() {
+        when(delegate.findById("quota1")).thenReturn(Optional.of(QUOTA1));
+
+        sut.findById("quota1");
+        sut.invalidate("quota1");
+        sut.findById("quota1");
+
+        verify(delegate, times(2)).findById("quota1");
+    }
+
+    @Test
+    void loadRunningWhenInvalidatedShouldNotBeCached() throws Exception {
+        Quota changed = new Quota("quota1", QuantityOverTimeQuotaManager.class.getName(), "changed");
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        AtomicBoolean firstLoad = new AtomicBoolean(true);
+        when(delegate.findById("quota1")).thenAnswer(invocation -> {
+            if (!firstLoad.getAndSet(false)) return Optional.of(changed);
+            loadStarted.countDown();
+            release.join();
+            return Optional.of(QUOTA1);
+        });
+
+        CompletableFuture<Optional<Quota>> stale = CompletableFuture.supplyAsync(() -> sut.findById("quota1"));
+        loadStarted.await();
+        sut.invalidate("quota1");
+        release.complete(null);
+
+        assertThat(stale.get(), is(Optional.of(QUOTA1)));
+        assertThat(sut.findById("quota1"), is(Optional.of(changed)));
+    }
+
+    @Test
+    void missingQuotasShouldNotBeCached() {
+        sut.findById("quota1");
+        sut.findById("quota1");
+
+        verify(delegate, times(2)).findById("quota1");
+    }
+
+    @Test
+    void concurrentMissesShouldLoadOnceWhileHitsDoNotWait() throws Exception {
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        when(delegate.findById("quota1")).thenAnswer(invocation -> {
+            loadStarted.countDown();
+            release.join();
+            return Optional.of(QUOTA1);
+        });
+        when(delegate.save(QUOTA2)).thenReturn(QUOTA2);
+        sut.save(QUOTA2);
+
+        CompletableFuture<Optional<Quota>> first = CompletableFuture.supplyAsync(() -> sut.findById("quota1"));
+        loadStarted.await();
+        CompletableFuture<Optional<Quota>> second = CompletableFuture.supplyAsync(() -> sut.findById("quota1"));
+
+        assertThat(sut.findById("quota2"), is(Optional.of(QUOTA2)));
+        release.complete(null);
+        assertThat(first.get(), is(Optional.of(QUOTA1)));
+        assertThat(second.get(), is(Optional.of(QUOTA1)));
+        verify(delegate, times(1)).findById("quota1");
+    }
+
+    @Test
+    void failedLoadShouldNotBeCached() {
+        AtomicBoolean delegateDown = new AtomicBoolean(true);
+        when(delegate.findById("quota1")).thenAnswer(invocation -> {
+            if (delegateDown.getAndSet(false)) throw new IllegalStateException("delegate is down");
+            return Optional.of(QUOTA1);
+        });
+
+        assertThrows(IllegalStateException.class, () -> sut.findById("quota1"));
+
+        assertThat(sut.findById("quota1"), is(Optional.of(QUOTA1)));
+    }
+
+    @Test
+    void findAllShouldOnlyLoadMissingQuotas() {
+        when(delegate.findById("quota1")).thenReturn(Optional.of(QUOTA1));
+        when(delegate.findAllById(List.of("quota2"))).thenReturn(List.of(QUOTA2));
+
+        sut.findById("quota1");
+
+        assertThat(sut.findAllById(List.of("quota1", "quota2")), is(List.of(QUOTA1, QUOTA2)));
+    }
+
+    @Test
+    void preloadedQuotasShouldBeServedFromMemory() {
+        when(delegate.findAllById(List.of("quota1", "quota2"))).thenReturn(List.of(QUOTA1, QUOTA2));
+
+        sut.preload(List.of("quota1", "quota2"));
+
+        assertThat(sut.findById("quota2"), is(Optional.of(QUOTA2)));
+        verify(delegate, never()).findById("quota2");
+    }
+
+    @Test
+    void savedQuotasShouldBeCached() {
+        when(delegate.save(QUOTA1)).thenReturn(QUOTA1);
+
+        sut.save(QUOTA1);
+
+        assertThat(sut.findById("quota1"), is(Optional.of(QUOTA1)));
+        verify(delegate, never()).findById("quota1");
+    }
+}
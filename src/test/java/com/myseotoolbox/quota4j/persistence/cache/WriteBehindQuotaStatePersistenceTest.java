@@ -0,0 +1,230 @@
+package com.myseotoolbox.quota4j.persistence.cache;
+
+import com.myseotoolbox.quota4j.InMemoryQuotaStatePersistence;
+import com.myseotoolbox.quota4j.TestClock;
+import com.myseotoolbox.quota4j.metrics.QuotaMetrics;
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit.limitOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class WriteBehindQuotaStatePersistenceTest {
+
+    private static final QuotaStateId ID1 = QuotaStateId.create("owner1", "quota");
+    private static final QuotaStateId ID2 = QuotaStateId.create("owner2", "quota");
+    private static final WriteBehindOptions OPTIONS = WriteBehindOptions.defaults()
+            .withFlushInterval(Duration.ofHours(1))
+            .withTtl(Duration.ofMinutes(1));
+
+    private final TestClock testClock = new TestClock();
+    private final InMemoryQuotaStatePersistence delegate = new InMemoryQuotaStatePersistence();
+    private WriteBehindQuotaStatePersistence sut;
+
+    @BeforeEach
+    void setUp() {
+        sut = new WriteBehindQuotaStatePersistence(delegate, OPTIONS, testClock);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sut.close();
+    }
+
+    @Test
+    void savesShouldBeCoalescedUntilFlush() {
+        sut.save(stateOf(ID1, 9));
+        sut.save(stateOf(ID1, 8));
+        sut.save(stateOf(ID1, 7));
+        sut.save(stateOf(ID2, 6));
+        assertThat(delegate.saveAllCount(), is(0));
+
+        sut.flush();
+
+        assertThat(delegate.saveAllCount(), is(1));
+        assertThat(delegate.get(ID1).get(), is(stateOf(ID1, 7)));
+        assertThat(sut.dirtyCount(), is(0));
+    }
+
+    @Test
+    void shouldServeReadsFromMemory() {
+        delegate.save(stateOf(ID1, 10));
+
+        sut.findById(ID1);
+        assertThat(sut.findById(ID1).get(), is(stateOf(ID1, 10)));
+
+        assertThat(delegate.findCount(), is(1));
+    }
+
+    @Test
+    void findAllShouldOnlyLoadMissingStates() {
+        delegate.save(stateOf(ID2, 10));
+        sut.save(stateOf(ID1, 5));
+
+        assertThat(sut.findAllById(List.of(ID1, ID2)), is(List.of(stateOf(ID1, 5), stateOf(ID2, 10))));
+        sut.findAllById(List.of(ID1, ID2));
+
+        assertThat(delegate.findAllCount(), is(1));
+    }
+
+    @Test
+    void shouldReloadExpiredStates() {
+        delegate.save(stateOf(ID1, 10));
+        sut.findById(ID1);
+
+        testClock.changeTime(instant -> instant.plus(OPTIONS.ttl()));
+        sut.findById(ID1);
+
+        assertThat(delegate.findCount(), is(2));
+    }
+
+    @Test
+    void dirtyStatesShouldSurviveEviction() {
+        sut.close();
+        sut = new WriteBehindQuotaStatePersistence(delegate, OPTIONS.withMaxSize(1), testClock);
+
+        sut.save(stateOf(ID1, 5));
+        sut.save(stateOf(ID2, 6));
+
+        assertThat(sut.findById(ID1).get(), is(stateOf(ID1, 5)));
+        assertThat(delegate.findCount(), is(0));
+    }
+
+    @Test
+    void closeShouldFlushDirtyStates() {
+        sut.save(stateOf(ID1, 5));
+        sut.save(stateOf(ID2, 6));
+
+        sut.close();
+
+        assertThat(delegate.get(ID1).get(), is(stateOf(ID1, 5)));
+        assertThat(delegate.get(ID2).get(), is(stateOf(ID2, 6)));
+    }
+
+    @Test
+    void reachingDirtyThresholdShouldTriggerFlush() throws InterruptedException {
+        sut.close();
+        sut = new WriteBehindQuotaStatePersistence(delegate, OPTIONS.withDirtyThreshold(2), testClock);
+
+        sut.save(stateOf(ID1, 5));
+        sut.save(stateOf(ID2, 6));
+
+        for (int i = 0; i < 500 && delegate.saveAllCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(delegate.get(ID2).get(), is(stateOf(ID2, 6)));
+    }
+
+    @Test
+    void failedBackgroundFlushShouldBeReportedAndRetried() throws InterruptedException {
+        sut.close();
+        AtomicBoolean delegateDown = new AtomicBoolean(true);
+        InMemoryQuotaStatePersistence failingDelegate = new InMemoryQuotaStatePersistence() {
+            @Override
+            public List<QuotaState> saveAll(Collection<QuotaState> quotaStates) {
+                if (delegateDown.get()) throw new IllegalStateException("delegate is down");
+                return super.saveAll(quotaStates);
+            }
+        };
+        AtomicInteger reportedDirty = new AtomicInteger();
+        QuotaMetrics metrics = new QuotaMetrics() {
+            @Override
+            public void flushFailed(int dirtyStates, RuntimeException error) {
+                reportedDirty.set(dirtyStates);
+            }
+        };
+        sut = new WriteBehindQuotaStatePersistence(failingDelegate, OPTIONS.withDirtyThreshold(2).withMetrics(metrics), testClock);
+
+        sut.save(stateOf(ID1, 5));
+        sut.save(stateOf(ID2, 6));
+        for (int i = 0; i < 500 && reportedDirty.get() == 0; i++) {
+            Thread.sleep(10);
+        }
+
+        assertThat(reportedDirty.get(), is(2));
+        assertThat(sut.dirtyCount(), is(2));
+        delegateDown.set(false);
+        sut.flush();
+        assertThat(failingDelegate.get(ID2).get(), is(stateOf(ID2, 6)));
+        assertThat(sut.dirtyCount(), is(0));
+    }
+
+    @Test
+    void loadShouldNotOverwriteStateSavedMeanwhile() throws Exception {
+        sut.close();
+        delegate.save(stateOf(ID1, 10));
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch finishLoading = new CountDownLatch(1);
+        InMemoryQuotaStatePersistence slowDelegate = new InMemoryQuotaStatePersistence() {
+            @Override
+            public Optional<QuotaState> findById(QuotaStateId quotaStateId) {
+                Optional<QuotaState> found = delegate.findById(quotaStateId);
+                loading.countDown();
+                try {
+                    finishLoading.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return found;
+            }
+        };
+        sut = new WriteBehindQuotaStatePersistence(slowDelegate, OPTIONS, testClock);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        Future<Optional<QuotaState>> load = executor.submit(() -> sut.findById(ID1));
+        loading.await();
+        sut.save(stateOf(ID1, 9));
+        sut.flush();
+        finishLoading.countDown();
+
+        assertThat(load.get(30, TimeUnit.SECONDS).get(), is(stateOf(ID1, 9)));
+        assertThat(sut.findById(ID1).get(), is(stateOf(ID1, 9)));
+        executor.shutdown();
+    }
+
+    @Test
+    void saveAfterCloseShouldBeRejected() {
+        sut.save(stateOf(ID1, 5));
+        sut.close();
+
+        assertThrows(IllegalStateException.class, () -> sut.save(stateOf(ID1, 4)));
+        assertThat(delegate.get(ID1).get(), is(stateOf(ID1, 5)));
+    }
+
+    @Test
+    void deleteShouldRemovePendingStateEverywhere() {
+        sut.save(stateOf(ID1, 5).withNextVersion());
+
+        assertThat(sut.deleteIfVersion(ID1, 0), is(false));
+        assertThat(sut.deleteIfVersion(ID1, 1), is(true));
+
+        assertThat(sut.findById(ID1), is(Optional.empty()));
+        assertThat(delegate.get(ID1), is(Optional.empty()));
+        assertThat(sut.dirtyCount(), is(0));
+    }
+
+    private static QuotaState stateOf(QuotaStateId id, long available) {
+        QuantityOverTimeState state = new QuantityOverTimeState(limitOf(10, Duration.ofDays(1)), available, Instant.EPOCH);
+        return new QuotaState(id, QuantityOverTimeQuotaManager.class.getName(), state);
+    }
+}
@@ -0,0 +1,191 @@
+package com.myseotoolbox.quota4j.persistence.journal;
+
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.persistence.QuotaStatePage;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit.limitOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class JournalQuotaStatePersistenceTest {
+
+    private static final QuotaStateId ID1 = QuotaStateId.create("owner1", "quota");
+    private static final QuotaStateId ID2 = QuotaStateId.create("owner2", "quota");
+    private static final JournalOptions OPTIONS = JournalOptions.defaults();
+
+    private Path dir;
+    private JournalQuotaStatePersistence sut;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("quota4j");
+        sut = new JournalQuotaStatePersistence(dir, OPTIONS);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        sut.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void shouldFindSavedStates() {
+        sut.save(stateOf(ID1, 5));
+        sut.saveAll(List.of(stateOf(ID1, 4), stateOf(ID2, 6)));
+
+        assertThat(sut.findById(ID1), is(Optional.of(stateOf(ID1, 4))));
+        assertThat(sut.findAllById(List.of(ID1, ID2)), is(List.of(stateOf(ID1, 4), stateOf(ID2, 6))));
+        assertThat(sut.findById(QuotaStateId.create("other", "quota")), is(Optional.empty()));
+    }
+
+    @Test
+    void shouldReplayJournalOnStartup() {
+        sut.save(stateOf(ID1, 5));
+        sut.save(stateOf(ID1, 4));
+        sut.save(stateOf(ID2, 6).withNextVersion());
+        sut.deleteIfVersion(ID2, 1);
+        sut.close();
+
+        sut = new JournalQuotaStatePersistence(dir, OPTIONS);
+
+        assertThat(sut.findById(ID1), is(Optional.of(stateOf(ID1, 4))));
+        assertThat(sut.findById(ID2), is(Optional.empty()));
+    }
+
+    @Test
+    void shouldLoadSnapshotAndReplayOnlyTheTail() throws IOException {
+        sut.save(stateOf(ID1, 5));
+        sut.save(stateOf(ID2, 6));
+        sut.compact();
+        sut.save(stateOf(ID1, 3));
+        sut.close();
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files.map(file -> file.getFileName().toString()).sorted().toList(), is(List.of("journal-1.q4j", "snapshot.q4j")));
+        }
+        sut = new JournalQuotaStatePersistence(dir, OPTIONS);
+
+        assertThat(sut.findById(ID1), is(Optional.of(stateOf(ID1, 3))));
+        assertThat(sut.findById(ID2), is(Optional.of(stateOf(ID2, 6))));
+    }
+
+    @Test
+    void shouldDiscardTornRecordAtTheEnd() throws IOException {
+        sut.save(stateOf(ID1, 5));
+        sut.save(stateOf(ID1, 4));
+        sut.close();
+        Path journal = dir.resolve("journal-0.q4j");
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        sut = new JournalQuotaStatePersistence(dir, OPTIONS);
+        assertThat(sut.findById(ID1), is(Optional.of(stateOf(ID1, 5))));
+
+        sut.save(stateOf(ID2, 6));
+        sut.close();
+        sut = new JournalQuotaStatePersistence(dir, OPTIONS);
+        assertThat(sut.findById(ID2), is(Optional.of(stateOf(ID2, 6))));
+    }
+
+    @Test
+    void recordLengthPastTheEndOfTheFileShouldEndValidData() throws IOException {
+        sut.save(stateOf(ID1, 5));
+        sut.close();
+        Path journal = dir.resolve("journal-0.q4j");
+        long valid = Files.size(journal);
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(16).putInt(0, Integer.MAX_VALUE));
+        }
+
+        sut = new JournalQuotaStatePersistence(dir, OPTIONS);
+
+        assertThat(sut.findById(ID1), is(Optional.of(stateOf(ID1, 5))));
+        assertThat(Files.size(journal), is(valid));
+    }
+
+    @Test
+    void shouldFailOnCorruptedRecordBeforeTheLastJournal() throws IOException {
+        sut.save(stateOf(ID1, 5));
+        sut.close();
+        Path first = dir.resolve("journal-0.q4j");
+        Files.copy(first, dir.resolve("journal-1.q4j"));
+        try (FileChannel channel = FileChannel.open(first, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[4]), 4);
+        }
+
+        assertThrows(IllegalStateException.class, () -> new JournalQuotaStatePersistence(dir, OPTIONS));
+
+        Files.delete(first);
+        sut = new JournalQuotaStatePersistence(dir, OPTIONS);
+        assertThat(sut.findById(ID1), is(Optional.of(stateOf(ID1, 5))));
+    }
+
+    @Test
+    void shouldCompactOnceOverThreshold() throws Exception {
+        sut.close();
+        sut = new JournalQuotaStatePersistence(dir, OPTIONS.withCompactionThreshold(1024));
+
+        for (int i = 0; i < 100; i++) {
+            sut.save(stateOf(ID1, i));
+        }
+        sut.close();
+
+        assertThat(Files.exists(dir.resolve("snapshot.q4j")), is(true));
+        assertThat(Files.exists(dir.resolve("journal-0.q4j")), is(false));
+        sut = new JournalQuotaStatePersistence(dir, OPTIONS);
+        assertThat(sut.findById(ID1), is(Optional.of(stateOf(ID1, 99))));
+    }
+
+    @Test
+    void compareAndSaveShouldCheckVersion() {
+        QuotaState first = stateOf(ID1, 5).withNextVersion();
+        assertThat(sut.compareAndSave(0, first), is(true));
+
+        assertThat(sut.compareAndSave(0, stateOf(ID1, 4).withNextVersion()), is(false));
+        assertThat(sut.compareAndSaveAll(List.of(stateOf(ID1, 4).withNextVersion(), stateOf(ID2, 4).withNextVersion())), is(false));
+        assertThat(sut.findById(ID2), is(Optional.empty()));
+    }
+
+    @Test
+    void scanShouldPageThroughAllStates() {
+        for (int i = 0; i < 5; i++) {
+            sut.save(stateOf(QuotaStateId.create("owner" + i, "quota"), i));
+        }
+
+        QuotaStatePage first = sut.scan(null, 3);
+        QuotaStatePage second = sut.scan(first.nextCursor(), 3);
+
+        assertThat(first.states().size(), is(3));
+        assertThat(second.states().size(), is(2));
+        assertThat(second.nextCursor(), nullValue());
+    }
+
+    private static QuotaState stateOf(QuotaStateId id, long available) {
+        QuantityOverTimeState state = new QuantityOverTimeState(limitOf(10, Duration.ofDays(1)), available, Instant.EPOCH);
+        return new QuotaState(id, QuantityOverTimeQuotaManager.class.getName(), state);
+    }
+}
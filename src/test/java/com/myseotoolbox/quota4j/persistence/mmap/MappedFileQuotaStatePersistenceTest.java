@@ -0,0 +1,220 @@
+package com.myseotoolbox.quota4j.persistence.mmap;
+
+import com.myseotoolbox.quota4j.model.QuotaState;
+import com.myseotoolbox.quota4j.model.QuotaStateId;
+import com.myseotoolbox.quota4j.persistence.QuotaStatePage;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit.limitOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MappedFileQuotaStatePersistenceTest {
+
+    private static final QuotaStateId ID1 = QuotaStateId.create("owner1", "quota");
+    private static final QuotaStateId ID2 = QuotaStateId.create("owner2", "quota");
+    private static final MappedFileOptions OPTIONS = MappedFileOptions.defaults()
+            .withCapacity(16)
+            .withForceInterval(Duration.ZERO);
+
+    private Path dir;
+    private Path file;
+    private MappedFileQuotaStatePersistence sut;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("quota4j");
+        file = dir.resolve("states.q4j");
+        sut = new MappedFileQuotaStatePersistence(file, OPTIONS);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        sut.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void shouldFindSavedStates() {
+        sut.save(stateOf(ID1, 5));
+        sut.save(stateOf(ID2, 6));
+
+        assertThat(sut.findById(ID1), is(Optional.of(stateOf(ID1, 5))));
+        assertThat(sut.findAllById(List.of(ID1, ID2)), is(List.of(stateOf(ID1, 5), stateOf(ID2, 6))));
+        assertThat(sut.findById(QuotaStateId.create("other", "quota")), is(Optional.empty()));
+    }
+
+    @Test
+    void shouldUpdateInPlace() {
+        sut.save(stateOf(ID1, 5));
+        sut.save(stateOf(ID1, 4));
+
+        assertThat(sut.findById(ID1), is(Optional.of(stateOf(ID1, 4))));
+    }
+
+    @Test
+    void statesShouldSurviveReopening() {
+        sut.save(stateOf(ID1, 5));
+        sut.close();
+
+        sut = new MappedFileQuotaStatePersistence(file, OPTIONS);
+
+        assertThat(sut.findById(ID1), is(Optional.of(stateOf(ID1, 5))));
+    }
+
+    @Test
+    void reopeningWithDifferentLayoutShouldFail() {
+        sut.close();
+
+        assertThrows(IllegalStateException.class, () -> new MappedFileQuotaStatePersistence(file, OPTIONS.withRecordSize(512)));
+
+        sut = new MappedFileQuotaStatePersistence(file, OPTIONS);
+    }
+
+    @Test
+    void compareAndSaveShouldCheckVersion() {
+        QuotaState first = stateOf(ID1, 5).withNextVersion();
+        assertThat(sut.compareAndSave(0, first), is(true));
+
+        assertThat(sut.compareAndSave(0, stateOf(ID1, 4).withNextVersion()), is(false));
+        assertThat(sut.compareAndSave(1, first.withUpdatedState(stateOf(ID1, 3).currentState()).withNextVersion()), is(true));
+        assertThat(sut.findById(ID1).get().version(), is(2L));
+    }
+
+    @Test
+    void collidingKeysShouldAllBeStored() {
+        sut.close();
+        sut = new MappedFileQuotaStatePersistence(dir.resolve("small.q4j"), OPTIONS.withCapacity(4));
+
+        for (int i = 0; i < 4; i++) {
+            sut.save(stateOf(QuotaStateId.create("owner" + i, "quota"), i));
+        }
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(sut.findById(QuotaStateId.create("owner" + i, "quota")).get(), is(stateOf(QuotaStateId.create("owner" + i, "quota"), i)));
+        }
+        assertThrows(IllegalStateException.class, () -> sut.save(stateOf(QuotaStateId.create("owner5", "quota"), 5)));
+    }
+
+    @Test
+    void scanShouldPageThroughAllStates() {
+        for (int i = 0; i < 5; i++) {
+            sut.save(stateOf(QuotaStateId.create("owner" + i, "quota"), i));
+        }
+
+        QuotaStatePage first = sut.scan(null, 3);
+        QuotaStatePage second = sut.scan(first.nextCursor(), 3);
+
+        assertThat(first.states().size(), is(3));
+        assertThat(second.states().size(), is(2));
+        assertThat(second.nextCursor(), nullValue());
+    }
+
+    @Test
+    void deleteShouldCheckVersionAndFreeTheSlot() {
+        sut.close();
+        sut = new MappedFileQuotaStatePersistence(dir.resolve("small.q4j"), OPTIONS.withCapacity(2));
+        sut.save(stateOf(ID1, 5).withNextVersion());
+        sut.save(stateOf(ID2, 6));
+
+        assertThat(sut.deleteIfVersion(ID1, 0), is(false));
+        assertThat(sut.deleteIfVersion(ID1, 1), is(true));
+
+        assertThat(sut.findById(ID1), is(Optional.empty()));
+        assertThat(sut.findById(ID2), is(Optional.of(stateOf(ID2, 6))));
+        sut.save(stateOf(QuotaStateId.create("owner3", "quota"), 7));
+        assertThat(sut.findById(QuotaStateId.create("owner3", "quota")).get(), is(stateOf(QuotaStateId.create("owner3", "quota"), 7)));
+    }
+
+    @Test
+    void churnShouldNotLeaveDeletedSlots() {
+        sut.save(stateOf(ID1, 1));
+        sut.save(stateOf(ID2, 2));
+
+        for (int i = 0; i < 1000; i++) {
+            QuotaStateId id = QuotaStateId.create("churn" + i, "quota");
+            sut.save(stateOf(id, i));
+            assertThat(sut.deleteIfVersion(id, 0), is(true));
+        }
+
+        assertThat(sut.deletedSlots(), is(0));
+        assertThat(sut.findById(ID1), is(Optional.of(stateOf(ID1, 1))));
+        assertThat(sut.findById(ID2), is(Optional.of(stateOf(ID2, 2))));
+        sut.deleteIfVersion(ID1, 0);
+        sut.deleteIfVersion(ID2, 0);
+        assertThat(sut.deletedSlots(), is(0));
+    }
+
+    @Test
+    void duplicateLeftByInterruptedMoveShouldBeDroppedOnOpen() throws IOException {
+        sut.close();
+        Path small = dir.resolve("small.q4j");
+        sut = new MappedFileQuotaStatePersistence(small, OPTIONS.withCapacity(4));
+        sut.save(stateOf(ID1, 5));
+        sut.close();
+
+        int recordSize = OPTIONS.recordSize();
+        try (RandomAccessFile raf = new RandomAccessFile(small.toFile(), "rw")) {
+            int slot = 0;
+            raf.seek(64);
+            while (raf.read() != 1) raf.seek(64 + (long) ++slot * recordSize);
+            byte[] record = new byte[recordSize];
+            raf.seek(64 + (long) slot * recordSize);
+            raf.readFully(record);
+            raf.seek(64 + (long) ((slot + 1) & 3) * recordSize);
+            raf.write(record);
+        }
+        sut = new MappedFileQuotaStatePersistence(small, OPTIONS.withCapacity(4));
+
+        assertThat(sut.findById(ID1), is(Optional.of(stateOf(ID1, 5))));
+        assertThat(sut.deleteIfVersion(ID1, 0), is(true));
+        assertThat(sut.findById(ID1), is(Optional.empty()));
+        assertThat(sut.deletedSlots(), is(0));
+    }
+
+    @Test
+    void tornSlotShouldReadAsMissing() throws IOException {
+        sut.close();
+        Path single = dir.resolve("single.q4j");
+        sut = new MappedFileQuotaStatePersistence(single, OPTIONS.withCapacity(1));
+        sut.save(stateOf(ID1, 5).withNextVersion());
+        sut.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(single.toFile(), "rw")) {
+            long firstPayloadByte = 64 + 25 + "owner1\0quota".length();
+            raf.seek(firstPayloadByte);
+            int original = raf.read();
+            raf.seek(firstPayloadByte);
+            raf.write(original ^ 0xFF);
+        }
+        sut = new MappedFileQuotaStatePersistence(single, OPTIONS.withCapacity(1));
+
+        assertThat(sut.findById(ID1), is(Optional.empty()));
+        assertThat(sut.compareAndSave(0, stateOf(ID1, 10).withNextVersion()), is(true));
+        assertThat(sut.findById(ID1), is(Optional.of(stateOf(ID1, 10).withNextVersion())));
+    }
+
+    private static QuotaState stateOf(QuotaStateId id, long available) {
+        QuantityOverTimeState state = new QuantityOverTimeState(limitOf(10, Duration.ofDays(1)), available, Instant.EPOCH);
+        return new QuotaState(id, QuantityOverTimeQuotaManager.class.getName(), state);
+    }
+}
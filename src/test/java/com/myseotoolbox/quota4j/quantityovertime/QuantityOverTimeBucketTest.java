@@ -0,0 +1,84 @@
+package com.myseotoolbox.quota4j.quantityovertime;
+
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeBucket;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeLimit;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.quantityovertime.QuantityOverTimeState;
+import com.myseotoolbox.quota4j.time.QuotaClock;
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class QuantityOverTimeBucketTest {
+
+    private static final QuantityOverTimeLimit TEN_PER_DAY_LIMIT = new QuantityOverTimeLimit(10, Duration.ofDays(1));
+    private static final long ONE_DAY_NANOS = Duration.ofDays(1).toNanos();
+
+    @Test
+    void shouldNotAllowToExceedQuota() {
+        QuantityOverTimeBucket sut = new QuantityOverTimeBucket(TEN_PER_DAY_LIMIT, 10, 0);
+
+        assertTrue(sut.tryAcquire(10, 0));
+        assertFalse(sut.tryAcquire(1, 0));
+    }
+
+    @Test
+    void shouldNotReplenishEarly() {
+        QuantityOverTimeBucket sut = new QuantityOverTimeBucket(TEN_PER_DAY_LIMIT, 0, 0);
+
+        assertFalse(sut.tryAcquire(1, ONE_DAY_NANOS - 1));
+        assertTrue(sut.tryAcquire(10, ONE_DAY_NANOS));
+        assertThat(sut.lastRefillNanos(), is(ONE_DAY_NANOS));
+    }
+
+    @Test
+    void quotaDefaultAvailableShouldNotBeOverride() {
+        QuantityOverTimeBucket sut = new QuantityOverTimeBucket(TEN_PER_DAY_LIMIT, 100, 0);
+
+        sut.tryAcquire(10, 0);
+
+        assertThat(sut.available(2 * ONE_DAY_NANOS), is(90L));
+    }
+
+    @Test
+    void shouldConvertFromAndToState() {
+        QuantityOverTimeState state = new QuantityOverTimeState(TEN_PER_DAY_LIMIT, 7, Instant.ofEpochSecond(1234, 567));
+
+        assertThat(QuantityOverTimeBucket.from(state).toState(), is(state));
+    }
+
+    @Test
+    void shouldAcceptWindowsLongerThanNanosCanHold() {
+        QuantityOverTimeLimit forever = new QuantityOverTimeLimit(10, Duration.ofDays(365L * 1000));
+        QuantityOverTimeBucket sut = new QuantityOverTimeBucket(forever, 0, 0);
+
+        assertFalse(sut.tryAcquire(1, Long.MAX_VALUE - 1));
+        assertThat(QuantityOverTimeBucket.windowEndNanos(sut.toState()), is(Long.MAX_VALUE));
+    }
+
+    @Test
+    void acquiringThroughTheManagerShouldNotAllocate() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        QuantityOverTimeQuotaManager quotaManager = new QuantityOverTimeQuotaManager(QuotaClock.system());
+        QuantityOverTimeBucket sut = new QuantityOverTimeBucket(new QuantityOverTimeLimit(Long.MAX_VALUE, Duration.ofSeconds(1)), Long.MAX_VALUE, 0);
+        for (int i = 0; i < 100_000; i++) {
+            quotaManager.tryAcquire(sut, 1);
+        }
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 100_000; i++) {
+            quotaManager.tryAcquire(sut, 1);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertThat(allocated, is(0L));
+    }
+}
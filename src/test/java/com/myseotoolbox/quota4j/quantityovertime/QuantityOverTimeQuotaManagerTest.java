@@ -149,6 +149,51 @@ public class QuantityOverTimeQuotaManagerTest {
         assertTrue(sut.tryAcquire(state, 10).result());
     }
 
+    @Test
+    void releaseShouldGiveBackUnitsWithinTheSameWindow() {
+        givenQuantityOverTimeState().withLimit(TEN_PER_DAY_LIMIT).init();
+        state = sut.tryAcquire(state, 10).state();
+
+        state = sut.release(state, 4).state();
+
+        assertThat(state.available(), is(4L));
+    }
+
+    @Test
+    void releaseShouldDropUnitsOfAnExpiredWindow() {
+        givenQuantityOverTimeState().withLimit(TEN_PER_DAY_LIMIT).init();
+        state = sut.tryAcquire(state, 10).state();
+        testClock.changeTime(curTime -> curTime.plus(1, ChronoUnit.DAYS));
+
+        assertFalse(sut.release(state, 4).result());
+        assertThat(sut.release(state, 4).state().available(), is(10L));
+    }
+
+    @Test
+    void shouldBeIdleOnceRefilled() {
+        QuantityOverTimeState defaultState = new QuantityOverTimeState(TEN_PER_DAY_LIMIT, 10, Instant.EPOCH);
+        givenQuantityOverTimeState().withLimit(TEN_PER_DAY_LIMIT).init();
+        assertTrue(sut.isIdle(state, defaultState));
+
+        state = sut.tryAcquire(state, 1).state();
+        assertFalse(sut.isIdle(state, defaultState));
+
+        testClock.changeTime(curTime -> curTime.plus(1, ChronoUnit.DAYS));
+        assertTrue(sut.isIdle(state, defaultState));
+    }
+
+    @Test
+    void shouldEstimateEndOfWindow() {
+        givenQuantityOverTimeState().withLimit(TEN_PER_DAY_LIMIT).init();
+        assertThat(sut.nanosUntilAvailable(state, 10), is(0L));
+
+        state = sut.tryAcquire(state, 10).state();
+        testClock.changeTime(curTime -> curTime.plus(1, ChronoUnit.HOURS));
+
+        assertThat(sut.nanosUntilAvailable(state, 1), is(Duration.ofHours(23).toNanos()));
+        assertThat(sut.nanosUntilAvailable(state, 11), is(QuantityOverTimeQuotaManager.NEVER));
+    }
+
     private QuantityOverTimeStateBuilder givenQuantityOverTimeState() {
         return new QuantityOverTimeStateBuilder();
     }
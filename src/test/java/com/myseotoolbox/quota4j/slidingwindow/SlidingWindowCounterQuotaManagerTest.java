@@ -0,0 +1,60 @@
+package com.myseotoolbox.quota4j.slidingwindow;
+
+import com.myseotoolbox.quota4j.TestClock;
+import com.myseotoolbox.quota4j.quotamanager.slidingwindow.SlidingWindowCounterQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.slidingwindow.SlidingWindowLimit;
+import com.myseotoolbox.quota4j.quotamanager.slidingwindow.SlidingWindowState;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SlidingWindowCounterQuotaManagerTest {
+
+    private static final SlidingWindowLimit TEN_PER_TEN_SECONDS = SlidingWindowLimit.limitOf(10, Duration.ofSeconds(10), 10);
+
+    private final TestClock testClock = new TestClock();
+    private SlidingWindowState state;
+
+    SlidingWindowCounterQuotaManager sut;
+
+    @BeforeEach
+    void setUp() {
+        sut = new SlidingWindowCounterQuotaManager(testClock);
+        testClock.changeTime(instant -> instant.plusSeconds(1000));
+        state = SlidingWindowState.empty(TEN_PER_TEN_SECONDS);
+    }
+
+    @Test
+    void shouldNotAllowToExceedQuota() {
+        state = sut.tryAcquire(state, 10).state();
+        testClock.changeTime(instant -> instant.plusSeconds(9));
+
+        assertFalse(sut.tryAcquire(state, 1).result());
+    }
+
+    @Test
+    void shouldWeightTheBucketLeavingTheWindow() {
+        state = sut.tryAcquire(state, 10).state();
+
+        testClock.changeTime(instant -> instant.plusSeconds(10).plusMillis(500));
+
+        assertThat(sut.available(state), is(5L));
+        assertTrue(sut.tryAcquire(state, 5).result());
+        assertFalse(sut.tryAcquire(state, 6).result());
+    }
+
+    @Test
+    void shouldForgetBucketsOutOfTheWindow() {
+        state = sut.tryAcquire(state, 10).state();
+
+        testClock.changeTime(instant -> instant.plusSeconds(11));
+
+        assertThat(sut.available(state), is(10L));
+    }
+}
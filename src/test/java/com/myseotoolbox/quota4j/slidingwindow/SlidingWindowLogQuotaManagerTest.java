@@ -0,0 +1,88 @@
+package com.myseotoolbox.quota4j.slidingwindow;
+
+import com.myseotoolbox.quota4j.TestClock;
+import com.myseotoolbox.quota4j.quotamanager.slidingwindow.SlidingWindowLimit;
+import com.myseotoolbox.quota4j.quotamanager.slidingwindow.SlidingWindowLogQuotaManager;
+import com.myseotoolbox.quota4j.quotamanager.slidingwindow.SlidingWindowState;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SlidingWindowLogQuotaManagerTest {
+
+    private static final SlidingWindowLimit TEN_PER_TEN_SECONDS = SlidingWindowLimit.limitOf(10, Duration.ofSeconds(10), 10);
+
+    private final TestClock testClock = new TestClock();
+    private SlidingWindowState state;
+
+    SlidingWindowLogQuotaManager sut;
+
+    @BeforeEach
+    void setUp() {
+        sut = new SlidingWindowLogQuotaManager(testClock);
+        testClock.changeTime(instant -> instant.plusSeconds(1000));
+        state = SlidingWindowState.empty(TEN_PER_TEN_SECONDS);
+    }
+
+    @Test
+    void shouldNotAllowToExceedQuota() {
+        assertFalse(sut.tryAcquire(state, 11).result());
+        state = sut.tryAcquire(state, 10).state();
+        assertFalse(sut.tryAcquire(state, 1).result());
+    }
+
+    @Test
+    void shouldReleaseUnitsBucketByBucket() {
+        state = sut.tryAcquire(state, 4).state();
+        testClock.changeTime(instant -> instant.plusSeconds(5));
+        state = sut.tryAcquire(state, 6).state();
+
+        testClock.changeTime(instant -> instant.plusSeconds(5).plusMillis(500));
+        assertFalse(sut.tryAcquire(state, 1).result());
+
+        testClock.changeTime(instant -> instant.plusMillis(500));
+        assertThat(sut.available(state), is(4L));
+        assertTrue(sut.tryAcquire(state, 4).result());
+        assertFalse(sut.tryAcquire(state, 5).result());
+    }
+
+    @Test
+    void shouldForgetEverythingAfterAWholeWindow() {
+        state = sut.tryAcquire(state, 10).state();
+        testClock.changeTime(instant -> instant.plus(Duration.ofDays(1)));
+
+        assertThat(sut.available(state), is(10L));
+        assertTrue(sut.tryAcquire(state, 10).result());
+    }
+
+    @Test
+    void declineShouldLeaveStateUnchanged() {
+        state = sut.tryAcquire(state, 10).state();
+
+        assertThat(sut.tryAcquire(state, 1).state(), sameInstance(state));
+    }
+
+    @Test
+    void statesWithSameCountsShouldBeEqual() {
+        testClock.changeTime(instant -> instant.plusSeconds(100));
+
+        assertThat(sut.tryAcquire(state, 3).state(), is(sut.tryAcquire(state, 3).state()));
+    }
+
+    @Test
+    void shouldEstimateWhenEnoughBucketsLeaveTheWindow() {
+        state = sut.tryAcquire(state, 4).state();
+        testClock.changeTime(instant -> instant.plusSeconds(1));
+        state = sut.tryAcquire(state, 6).state();
+
+        assertThat(sut.nanosUntilAvailable(state, 4), is(Duration.ofSeconds(10).toNanos()));
+        assertThat(sut.nanosUntilAvailable(state, 5), is(Duration.ofSeconds(11).toNanos()));
+    }
+}
@@ -0,0 +1,54 @@
+package com.myseotoolbox.quota4j.time;
+
+import com.myseotoolbox.quota4j.TestClock;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CoarseQuotaClockTest {
+
+    private final TestClock testClock = new TestClock();
+
+    @Test
+    void shouldOnlyMoveOnTick() {
+        try (CoarseQuotaClock sut = new CoarseQuotaClock(QuotaClock.of(testClock), Duration.ofHours(1))) {
+            testClock.changeTime(instant -> instant.plusMillis(1500));
+            assertThat(sut.nowMillis(), is(0L));
+
+            sut.tick();
+
+            assertThat(sut.nowMillis(), is(1500L));
+            assertThat(sut.nowNanos(), is(1_500_000_000L));
+        }
+    }
+
+    @Test
+    void tickerShouldRefreshTheTime() throws InterruptedException {
+        try (CoarseQuotaClock sut = new CoarseQuotaClock(QuotaClock.of(testClock), Duration.ofMillis(1))) {
+            testClock.changeTime(instant -> instant.plusSeconds(1));
+
+            for (int i = 0; i < 500 && sut.nowMillis() == 0; i++) {
+                Thread.sleep(10);
+            }
+
+            assertThat(sut.nowMillis(), is(1000L));
+        }
+    }
+
+    @Test
+    void adapterShouldKeepClockPrecision() {
+        testClock.changeTime(instant -> instant.plusNanos(1_234_567_891L));
+
+        assertThat(QuotaClock.of(testClock).nowNanos(), is(1_234_567_891L));
+        assertThat(QuotaClock.of(testClock).nowMillis(), is(1234L));
+    }
+
+    @Test
+    void resolutionShouldBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new CoarseQuotaClock(Duration.ZERO));
+    }
+}